@@ -20,4 +20,81 @@ import jdk.jfr.consumer.RecordedEvent;
 public interface AttributeValueConverter {
 
     Object getValue(RecordedEvent event);
+
+    /**
+     * A converter deriving its value from the value of another converter, e.g.
+     * the id of a stack trace from the stack trace itself. When both are part of
+     * the same row, materializers pass the other converter's value, so that it's
+     * retrieved only once.
+     */
+    interface Derived extends AttributeValueConverter {
+
+        AttributeValueConverter getSource();
+
+        Object derive(Object sourceValue);
+
+        @Override
+        default Object getValue(RecordedEvent event) {
+            return derive(getSource().getValue(event));
+        }
+    }
+
+    /**
+     * A converter for attributes of type {@code long}, which can be retrieved
+     * without boxing, e.g. when evaluating filters. Converters for which a boxed
+     * value exists already should override {@link #getValue(RecordedEvent)}, so
+     * as to return that value instead of boxing the primitive one again.
+     */
+    @FunctionalInterface
+    interface OfLong extends AttributeValueConverter {
+
+        long getLong(RecordedEvent event);
+
+        @Override
+        default Object getValue(RecordedEvent event) {
+            return getLong(event);
+        }
+    }
+
+    /**
+     * A converter for attributes of type {@code int}.
+     */
+    @FunctionalInterface
+    interface OfInt extends AttributeValueConverter {
+
+        int getInt(RecordedEvent event);
+
+        @Override
+        default Object getValue(RecordedEvent event) {
+            return getInt(event);
+        }
+    }
+
+    /**
+     * A converter for attributes of type {@code double}.
+     */
+    @FunctionalInterface
+    interface OfDouble extends AttributeValueConverter {
+
+        double getDouble(RecordedEvent event);
+
+        @Override
+        default Object getValue(RecordedEvent event) {
+            return getDouble(event);
+        }
+    }
+
+    /**
+     * A converter for attributes of type {@code boolean}.
+     */
+    @FunctionalInterface
+    interface OfBoolean extends AttributeValueConverter {
+
+        boolean getBoolean(RecordedEvent event);
+
+        @Override
+        default Object getValue(RecordedEvent event) {
+            return getBoolean(event);
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A concurrency-safe cache holding up to a given number of entries. When that
+ * size is exceeded, the least recently used entry is evicted. Values are
+ * computed outside of the cache's lock, i.e. concurrent lookups of a missing
+ * key may compute its value more than once, with the first computed value
+ * being retained.
+ */
+class BoundedCache<K, V> {
+
+    private final Map<K, V> entries;
+
+    BoundedCache(int maxSize) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    V get(K key, Function<? super K, ? extends V> valueFunction) {
+        V value;
+        synchronized (this) {
+            value = entries.get(key);
+        }
+
+        if (value == null) {
+            V computed = valueFunction.apply(key);
+
+            synchronized (this) {
+                value = entries.putIfAbsent(key, computed);
+            }
+
+            if (value == null) {
+                value = computed;
+            }
+        }
+
+        return value;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Aggregates the stack traces of an event table into a call tree, e.g.
+ * {@code SELECT * FROM TABLE(jfr.CALL_TREE('jdk.ExecutionSample', NULL, 64))}.
+ * Returns one row per node of the tree, i.e. per distinct call path starting
+ * at the root frames, with the id of the node and its parent (or {@code null}
+ * for root frames), the method of the node's frame, the weight of the events
+ * whose stack traces end at that node (self weight), and the weight of all the
+ * events whose stack traces pass through that node (total weight). Nodes are
+ * numbered depth-first, with the children of each node ordered by descending
+ * total weight. If no weight column is given, each event has a weight of 1.
+ */
+public class CallTreeFunction extends StackTreeFunction {
+
+    public CallTreeFunction(Function<String, Table> tables) {
+        super(tables);
+    }
+
+    @Override
+    protected StackTreeTable createTable(String tableName, JfrScannableTable source, String weightColumn, int depth) {
+        return new CallTreeTable(tableName, source, weightColumn, depth);
+    }
+
+    static class CallTreeTable extends StackTreeTable {
+
+        private static final Comparator<StackTree.Node> BY_TOTAL_WEIGHT = Comparator.comparingLong(StackTree.Node::getTotalWeight)
+                .reversed();
+
+        CallTreeTable(String tableName, JfrScannableTable source, String weightColumn, int depth) {
+            super(tableName, source, weightColumn, depth, FrameHelper::asMethodText);
+        }
+
+        @Override
+        public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+            return typeFactory.builder()
+                    .add("nodeId", SqlTypeName.BIGINT)
+                    .add("parentId", SqlTypeName.BIGINT).nullable(true)
+                    .add("frame", SqlTypeName.VARCHAR)
+                    .add("selfWeight", SqlTypeName.BIGINT)
+                    .add("totalWeight", SqlTypeName.BIGINT)
+                    .build();
+        }
+
+        @Override
+        public Enumerable<@Nullable Object[]> scan(DataContext root) {
+            return Linq4j.asEnumerable(getRows(buildTree(root)));
+        }
+
+        /**
+         * Returns one row per descendant of the given node, numbered depth-first,
+         * with the children of each node ordered by descending total weight. The
+         * tree is traversed iteratively, as its depth is only bounded by the depth
+         * of the stack traces.
+         */
+        static List<Object[]> getRows(StackTree.Node root) {
+            List<Object[]> rows = new ArrayList<>();
+            Deque<Pending> pending = new ArrayDeque<>();
+            pushChildren(root, null, pending);
+
+            while (!pending.isEmpty()) {
+                Pending next = pending.pop();
+                StackTree.Node node = next.node;
+                Long nodeId = (long) rows.size() + 1;
+
+                rows.add(new Object[]{ nodeId, next.parentId, node.getFrame(), node.getSelfWeight(), node.getTotalWeight() });
+                pushChildren(node, nodeId, pending);
+            }
+
+            return rows;
+        }
+
+        private static void pushChildren(StackTree.Node node, Long nodeId, Deque<Pending> pending) {
+            List<StackTree.Node> children = node.getChildren();
+            children.sort(BY_TOTAL_WEIGHT);
+
+            // in reverse order, so that the heaviest child is visited first
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(new Pending(children.get(i), nodeId));
+            }
+        }
+    }
+
+    /**
+     * A node yet to be added to the call tree, and the id of its parent.
+     */
+    private static class Pending {
+
+        private final StackTree.Node node;
+        private final Long parentId;
+
+        private Pending(StackTree.Node node, Long parentId) {
+            this.node = node;
+            this.parentId = parentId;
+        }
+    }
+}
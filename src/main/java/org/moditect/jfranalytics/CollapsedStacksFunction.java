@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Aggregates the stack traces of an event table into collapsed stacks, as used
+ * for creating flame graphs, e.g.
+ * {@code SELECT * FROM TABLE(jfr.COLLAPSED_STACKS('jdk.ObjectAllocationSample', 'weight', 64))}.
+ * Returns one row per distinct stack, with its frames separated by semicolons,
+ * starting with the root frame, and the summed up weight of all the events with
+ * that stack. If no weight column is given, each event has a weight of 1.
+ */
+public class CollapsedStacksFunction extends StackTreeFunction {
+
+    public CollapsedStacksFunction(Function<String, Table> tables) {
+        super(tables);
+    }
+
+    @Override
+    protected StackTreeTable createTable(String tableName, JfrScannableTable source, String weightColumn, int depth) {
+        return new CollapsedStacksTable(tableName, source, weightColumn, depth);
+    }
+
+    private static class CollapsedStacksTable extends StackTreeTable {
+
+        CollapsedStacksTable(String tableName, JfrScannableTable source, String weightColumn, int depth) {
+            super(tableName, source, weightColumn, depth, FrameHelper::asMethodName);
+        }
+
+        @Override
+        public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+            return typeFactory.builder()
+                    .add("stack", SqlTypeName.VARCHAR)
+                    .add("weight", SqlTypeName.BIGINT)
+                    .build();
+        }
+
+        @Override
+        public Enumerable<@Nullable Object[]> scan(DataContext root) {
+            List<Object[]> rows = new ArrayList<>();
+            buildTree(root).collapse((stack, node) -> rows.add(new Object[]{ stack, node.getSelfWeight() }));
+            return Linq4j.asEnumerable(rows);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.math.BigDecimal;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * A simple predicate on one column of a JFR event table, such as {@code "gcId" = 5}
+ * or {@code "startTime" > ?}. Such predicates are evaluated against each
+ * {@link RecordedEvent} before a row gets created for it, so no rows are
+ * allocated for events which don't pass the filter.
+ */
+public class EventFilter {
+
+    private final int column;
+    private final AttributeValueConverter converter;
+    private final SqlKind kind;
+    private final @Nullable Object value;
+
+    private EventFilter(int column, AttributeValueConverter converter, SqlKind kind, @Nullable Object value) {
+        this.column = column;
+        this.converter = converter;
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * Returns a filter for the given expression, or {@code null} if the expression
+     * is not of a supported form and must be evaluated by Calcite instead.
+     */
+    public static @Nullable EventFilter of(RexNode filter, RelDataType rowType, AttributeValueConverter[] converters, DataContext root) {
+        // e.g. WHERE "someBoolean"
+        if (filter instanceof RexInputRef) {
+            return of((RexInputRef) filter, SqlKind.EQUALS, Boolean.TRUE, rowType, converters);
+        }
+        if (!(filter instanceof RexCall)) {
+            return null;
+        }
+
+        RexCall call = (RexCall) filter;
+        SqlKind kind = call.getKind();
+
+        switch (kind) {
+            case NOT:
+                // e.g. WHERE NOT "someBoolean"
+                if (call.getOperands().get(0) instanceof RexInputRef) {
+                    return of((RexInputRef) call.getOperands().get(0), SqlKind.EQUALS, Boolean.FALSE, rowType, converters);
+                }
+                return null;
+            case IS_NULL:
+            case IS_NOT_NULL:
+                if (call.getOperands().get(0) instanceof RexInputRef) {
+                    int column = ((RexInputRef) call.getOperands().get(0)).getIndex();
+                    if (rowType.getFieldList().get(column).getType().isStruct()) {
+                        return null;
+                    }
+                    return new EventFilter(column, converters[column], kind, null);
+                }
+                return null;
+            case EQUALS:
+            case NOT_EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL:
+                RexNode left = call.getOperands().get(0);
+                RexNode right = call.getOperands().get(1);
+
+                if (left instanceof RexInputRef) {
+                    return of((RexInputRef) left, kind, getComparisonValue(right, root), rowType, converters);
+                }
+                else if (right instanceof RexInputRef) {
+                    return of((RexInputRef) right, kind.reverse(), getComparisonValue(left, root), rowType, converters);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static @Nullable EventFilter of(RexInputRef inputRef, SqlKind kind, @Nullable Object value, RelDataType rowType,
+                                            AttributeValueConverter[] converters) {
+        if (value == null) {
+            return null;
+        }
+
+        int column = inputRef.getIndex();
+        Object normalized = normalize(rowType.getFieldList().get(column).getType().getSqlTypeName(), value);
+
+        return normalized != null ? new EventFilter(column, converters[column], kind, normalized) : null;
+    }
+
+    private static @Nullable Object getComparisonValue(RexNode operand, DataContext root) {
+        if (operand instanceof RexLiteral) {
+            RexLiteral literal = (RexLiteral) operand;
+
+            switch (literal.getTypeName().getFamily()) {
+                case NUMERIC:
+                    return literal.getValueAs(BigDecimal.class);
+                case TIMESTAMP:
+                    return literal.getValueAs(Long.class);
+                case BOOLEAN:
+                    return literal.getValueAs(Boolean.class);
+                case CHARACTER:
+                    return literal.getValueAs(String.class);
+                default:
+                    return null;
+            }
+        }
+        else if (operand instanceof RexDynamicParam) {
+            return root.get(((RexDynamicParam) operand).getName());
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts the given comparison value into the representation used for
+     * comparing it with values of the given column type; returns {@code null} if
+     * the type combination isn't supported.
+     */
+    private static @Nullable Object normalize(SqlTypeName columnType, Object value) {
+        switch (columnType) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case TIMESTAMP:
+                if (value instanceof BigDecimal) {
+                    try {
+                        return ((BigDecimal) value).longValueExact();
+                    }
+                    catch (ArithmeticException e) {
+                        return null;
+                    }
+                }
+                return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                        ? ((Number) value).longValue()
+                        : null;
+            case DOUBLE:
+                return value instanceof Number ? ((Number) value).doubleValue() : null;
+            case BOOLEAN:
+                return value instanceof Boolean ? value : null;
+            case VARCHAR:
+                return value instanceof String ? value : null;
+            default:
+                return null;
+        }
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public SqlKind getKind() {
+        return kind;
+    }
+
+    public @Nullable Object getValue() {
+        return value;
+    }
+
+    public boolean matches(RecordedEvent event) {
+        // compare primitive values without boxing them
+        if (value instanceof Long && converter instanceof AttributeValueConverter.OfLong) {
+            return matchesComparison(Long.compare(((AttributeValueConverter.OfLong) converter).getLong(event), (Long) value));
+        }
+        else if (value instanceof Long && converter instanceof AttributeValueConverter.OfInt) {
+            return matchesComparison(Long.compare(((AttributeValueConverter.OfInt) converter).getInt(event), (Long) value));
+        }
+        else if (value instanceof Double && converter instanceof AttributeValueConverter.OfDouble) {
+            return matchesComparison(Double.compare(((AttributeValueConverter.OfDouble) converter).getDouble(event), (Double) value));
+        }
+        else if (value instanceof Boolean && converter instanceof AttributeValueConverter.OfBoolean) {
+            return matchesComparison(Boolean.compare(((AttributeValueConverter.OfBoolean) converter).getBoolean(event), (Boolean) value));
+        }
+
+        return matches(converter.getValue(event));
+    }
+
+    /**
+     * Whether the given value of this filter's column, as obtained from its
+     * converter, matches this filter.
+     */
+    public boolean matches(@Nullable Object actual) {
+        if (kind == SqlKind.IS_NULL) {
+            return actual == null;
+        }
+        else if (kind == SqlKind.IS_NOT_NULL) {
+            return actual != null;
+        }
+        // comparisons with NULL are never true
+        else if (actual == null) {
+            return false;
+        }
+
+        return matchesComparison(compare(actual));
+    }
+
+    private boolean matchesComparison(int result) {
+        switch (kind) {
+            case EQUALS:
+                return result == 0;
+            case NOT_EQUALS:
+                return result != 0;
+            case LESS_THAN:
+                return result < 0;
+            case LESS_THAN_OR_EQUAL:
+                return result <= 0;
+            case GREATER_THAN:
+                return result > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return result >= 0;
+            default:
+                throw new IllegalStateException("Unexpected filter kind: " + kind);
+        }
+    }
+
+    private int compare(Object actual) {
+        if (value instanceof Long) {
+            return Long.compare(((Number) actual).longValue(), (Long) value);
+        }
+        else if (value instanceof Double) {
+            return Double.compare(((Number) actual).doubleValue(), (Double) value);
+        }
+        else if (value instanceof Boolean) {
+            return Boolean.compare((Boolean) actual, (Boolean) value);
+        }
+        else {
+            return ((String) actual).compareTo((String) value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "$" + column + " " + kind.sql + (value != null ? " " + value : "");
+    }
+}
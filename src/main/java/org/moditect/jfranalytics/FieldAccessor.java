@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.lang.System.Logger.Level;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedObject;
+
+/**
+ * Retrieves the value of one top-level field of recorded events.
+ * <p>
+ * {@link RecordedObject#getValue(String)} resolves the given field by comparing
+ * its name with the names of all fields, for each single invocation. If the
+ * {@code jdk.jfr.consumer} package is opened to this library (e.g. using
+ * {@code --add-opens jdk.jfr/jdk.jfr.consumer=ALL-UNNAMED}), the field's
+ * position is resolved once per event type and chunk instead, and values are
+ * retrieved by that position. Otherwise, values are retrieved by name.
+ * <p>
+ * As chunks may be read concurrently, positions are kept for the field lists of
+ * the most recently read chunks, in an array which is replaced upon changes
+ * only, i.e. accessing a field doesn't require any writes once the chunks
+ * being read have been bound.
+ */
+class FieldAccessor {
+
+    private static final System.Logger LOGGER = System.getLogger(FieldAccessor.class.getName());
+    private static final MethodHandle OBJECT_AT = getObjectAtHandle();
+    private static final int MAX_BINDINGS = 16;
+
+    private final String name;
+    private volatile Binding[] bindings = new Binding[0];
+
+    FieldAccessor(String name) {
+        this.name = name;
+    }
+
+    private static MethodHandle getObjectAtHandle() {
+        try {
+            return MethodHandles.privateLookupIn(RecordedObject.class, MethodHandles.lookup())
+                    .findVirtual(RecordedObject.class, "objectAt", MethodType.methodType(Object.class, int.class));
+        }
+        catch (IllegalAccessException | NoSuchMethodException | RuntimeException e) {
+            LOGGER.log(Level.DEBUG, "Package jdk.jfr.consumer isn't accessible, retrieving field values by name: {0}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Whether field values are retrieved by their position, i.e. whether the
+     * {@code jdk.jfr.consumer} package is opened to this library.
+     */
+    static boolean isPositional() {
+        return OBJECT_AT != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(RecordedObject object) {
+        if (OBJECT_AT == null) {
+            return object.getValue(name);
+        }
+
+        Binding binding = getBinding(object.getFields());
+
+        // arrays of structs are materialized by getValue()
+        if (binding.index == -1) {
+            return object.getValue(name);
+        }
+
+        Object value;
+        try {
+            value = (Object) OBJECT_AT.invokeExact(object, binding.index);
+        }
+        catch (Throwable e) {
+            throw new RuntimeException("Couldn't retrieve value of field " + name, e);
+        }
+
+        // structs usually are resolved already (e.g. threads, classes), others are materialized by getValue()
+        if (binding.struct && value != null && !(value instanceof RecordedObject)) {
+            return object.getValue(name);
+        }
+
+        return (T) value;
+    }
+
+    /**
+     * Returns a converter for this field of type {@code long}. Row values are
+     * the instances boxed by the JFR parser; only filters retrieve the primitive
+     * value. The same applies to the other primitive converters.
+     */
+    AttributeValueConverter.OfLong toLongConverter() {
+        return new AttributeValueConverter.OfLong() {
+
+            @Override
+            public long getLong(RecordedEvent event) {
+                return FieldAccessor.this.<Long> get(event);
+            }
+
+            @Override
+            public Object getValue(RecordedEvent event) {
+                return get(event);
+            }
+        };
+    }
+
+    AttributeValueConverter.OfInt toIntConverter() {
+        return new AttributeValueConverter.OfInt() {
+
+            @Override
+            public int getInt(RecordedEvent event) {
+                return FieldAccessor.this.<Integer> get(event);
+            }
+
+            @Override
+            public Object getValue(RecordedEvent event) {
+                return get(event);
+            }
+        };
+    }
+
+    AttributeValueConverter.OfDouble toDoubleConverter() {
+        return new AttributeValueConverter.OfDouble() {
+
+            @Override
+            public double getDouble(RecordedEvent event) {
+                return FieldAccessor.this.<Double> get(event);
+            }
+
+            @Override
+            public Object getValue(RecordedEvent event) {
+                return get(event);
+            }
+        };
+    }
+
+    AttributeValueConverter.OfBoolean toBooleanConverter() {
+        return new AttributeValueConverter.OfBoolean() {
+
+            @Override
+            public boolean getBoolean(RecordedEvent event) {
+                return FieldAccessor.this.<Boolean> get(event);
+            }
+
+            @Override
+            public Object getValue(RecordedEvent event) {
+                return get(event);
+            }
+        };
+    }
+
+    /**
+     * Returns the binding for the given field list, which is the same instance for
+     * all events of one type within one chunk. Concurrent updates may drop each
+     * other's bindings, which then just are bound again.
+     */
+    private Binding getBinding(List<ValueDescriptor> fields) {
+        Binding[] bindings = this.bindings;
+
+        for (Binding binding : bindings) {
+            if (binding.fields == fields) {
+                return binding;
+            }
+        }
+
+        Binding binding = bind(fields);
+
+        Binding[] updated = new Binding[Math.min(bindings.length + 1, MAX_BINDINGS)];
+        updated[0] = binding;
+        System.arraycopy(bindings, 0, updated, 1, updated.length - 1);
+        this.bindings = updated;
+
+        return binding;
+    }
+
+    private Binding bind(List<ValueDescriptor> fields) {
+        for (int i = 0; i < fields.size(); i++) {
+            ValueDescriptor field = fields.get(i);
+
+            if (field.getName().equals(name)) {
+                boolean struct = !field.getFields().isEmpty();
+                return new Binding(fields, struct && field.isArray() ? -1 : i, struct);
+            }
+        }
+
+        return new Binding(fields, -1, false);
+    }
+
+    private static class Binding {
+
+        private final List<ValueDescriptor> fields;
+        private final int index;
+        private final boolean struct;
+
+        private Binding(List<ValueDescriptor> fields, int index, boolean struct) {
+            this.fields = fields;
+            this.index = index;
+            this.struct = struct;
+        }
+    }
+}
@@ -15,26 +15,40 @@
  */
 package org.moditect.jfranalytics;
 
-import jdk.jfr.consumer.RecordedFrame;
-import jdk.jfr.consumer.RecordedMethod;
-
+/**
+ * Renders stack frames as text. The text of the frames of interned stack traces
+ * is cached per recording, see {@link StackTraceRenderer}.
+ */
 public class FrameHelper {
 
-    public static String asText(RecordedFrame frame) {
-        if (!frame.isJavaFrame() || frame.getMethod().isHidden()) {
+    public static String asText(JfrStackFrame frame) {
+        if (!frame.isJavaFrame() || frame.isHidden()) {
             return null;
         }
 
-        StringBuilder builder = new StringBuilder();
+        return render(frame);
+    }
 
-        RecordedMethod method = frame.getMethod();
-        builder.append(method.getType().getName());
-        builder.append('.');
-        builder.append(method.getName());
+    /**
+     * Returns the declaring class and name of the given frame's method.
+     */
+    public static String asMethodName(JfrStackFrame frame) {
+        return frame.getClassName() != null ? frame.getClassName() + "." + frame.getMethodName() : frame.getMethodName();
+    }
 
-        builder.append('(');
-        appendParameters(method.getDescriptor(), builder);
-        builder.append(')');
+    /**
+     * Returns the declaring class, name, and parameter types of the given frame's
+     * method, i.e. the text of the frame without its line number.
+     */
+    public static String asMethodText(JfrStackFrame frame) {
+        StringBuilder builder = new StringBuilder();
+        appendMethod(frame, builder);
+        return builder.toString();
+    }
+
+    private static String render(JfrStackFrame frame) {
+        StringBuilder builder = new StringBuilder();
+        appendMethod(frame, builder);
 
         int line = frame.getLineNumber();
         if (line >= 0) {
@@ -44,6 +58,18 @@ public class FrameHelper {
         return builder.toString();
     }
 
+    private static void appendMethod(JfrStackFrame frame, StringBuilder builder) {
+        builder.append(frame.getClassName());
+        builder.append('.');
+        builder.append(frame.getMethodName());
+
+        builder.append('(');
+        if (frame.getDescriptor() != null) {
+            appendParameters(frame.getDescriptor(), builder);
+        }
+        builder.append(')');
+    }
+
     /**
      * Appends the parameter types to the given builder.
      *
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * One or more regular expressions for matching the text of stack frames, as
+ * rendered by {@link FrameHelper}. Patterns are compiled once and shared by all
+ * queries using them. The results of matching a pattern against frames are
+ * memoized by its {@link Matcher}s, of which each function instance has its
+ * own, i.e. the memoized results are released together with the query.
+ * <p>
+ * Multiple expressions are combined into one alternation, so that each frame
+ * is tested against all of them in one pass of a single matcher. Expressions
+ * with groups are tested one after another instead, as their group numbers
+ * (e.g. in back references) would change when combined.
+ */
+class FramePattern {
+
+    private static final BoundedCache<List<String>, FramePattern> PATTERNS = new BoundedCache<>(1_024);
+
+    private final List<String> regexes;
+    private final Pattern[] patterns;
+
+    private FramePattern(List<String> regexes) {
+        this.regexes = regexes;
+        this.patterns = compile(regexes);
+    }
+
+    static FramePattern of(String regex) {
+        return of(List.of(regex));
+    }
+
+    /**
+     * Returns a pattern matching all frames which match any of the given
+     * expressions.
+     */
+    static FramePattern of(List<String> regexes) {
+        return PATTERNS.get(regexes, FramePattern::new);
+    }
+
+    private static Pattern[] compile(List<String> regexes) {
+        Pattern[] patterns = new Pattern[regexes.size()];
+        boolean hasGroups = false;
+
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = Pattern.compile(regexes.get(i));
+            hasGroups |= patterns[i].matcher("").groupCount() > 0;
+        }
+
+        if (patterns.length > 1 && !hasGroups) {
+            return new Pattern[]{ Pattern.compile(regexes.stream().map(r -> "(?:" + r + ")").collect(Collectors.joining("|"))) };
+        }
+
+        return patterns;
+    }
+
+    List<String> getRegexes() {
+        return regexes;
+    }
+
+    /**
+     * Returns a new matcher for this pattern, with an empty memo.
+     */
+    Matcher matcher() {
+        return new Matcher(this);
+    }
+
+    private boolean test(String text) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(text).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Matches the frames of stack traces against a pattern, testing each distinct
+     * frame only once. The memo holds at most one entry per distinct frame of the
+     * queried recordings. Matchers may be used by multiple threads concurrently.
+     */
+    static class Matcher {
+
+        private final FramePattern pattern;
+        private final Map<JfrStackFrame, Boolean> matches = new ConcurrentHashMap<>();
+
+        private Matcher(FramePattern pattern) {
+            this.pattern = pattern;
+        }
+
+        FramePattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Whether any frame of the given stack trace matches this pattern.
+         */
+        boolean matchesAny(JfrStackTrace stackTrace) {
+            for (int i = 0; i < stackTrace.getFrameCount(); i++) {
+                if (matches(stackTrace, i)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean matches(JfrStackTrace stackTrace, int depth) {
+            JfrStackFrame frame = stackTrace.getFrame(depth);
+
+            // not rendered, hence never matching
+            if (!frame.isJavaFrame() || frame.isHidden()) {
+                return false;
+            }
+
+            Boolean matching = matches.get(frame);
+            if (matching == null) {
+                matching = pattern.test(stackTrace.getFrameText(depth));
+                matches.put(frame, matching);
+            }
+
+            return matching;
+        }
+    }
+}
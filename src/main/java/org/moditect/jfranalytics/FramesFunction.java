@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.stream.IntStream;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.TableFunction;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.schema.impl.TableFunctionImpl;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Returns the frames of a {@link JfrStackTrace}, one row per frame, with a
+ * depth of 0 for the top-most frame, e.g. for joining events with their frames
+ * via {@code LATERAL TABLE(FRAMES("stackTrace"))}. Rows are created lazily
+ * while iterating the frames, i.e. consumers only reading the first frames,
+ * e.g. by filtering on the depth, don't cause rows for the others to be
+ * created.
+ */
+public class FramesFunction {
+
+    public static final TableFunction INSTANCE = TableFunctionImpl.create(FramesFunction.class, "eval");
+
+    public ScannableTable eval(Object stackTrace) {
+        if (stackTrace != null && !(stackTrace instanceof JfrStackTrace)) {
+            throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
+        }
+
+        return new FramesTable((JfrStackTrace) stackTrace);
+    }
+
+    private static class FramesTable extends AbstractTable implements ScannableTable {
+
+        private final JfrStackTrace stackTrace;
+
+        FramesTable(JfrStackTrace stackTrace) {
+            this.stackTrace = stackTrace;
+        }
+
+        @Override
+        public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+            return typeFactory.builder()
+                    .add("depth", SqlTypeName.INTEGER)
+                    .add("className", SqlTypeName.VARCHAR).nullable(true)
+                    .add("methodName", SqlTypeName.VARCHAR).nullable(true)
+                    .add("descriptor", SqlTypeName.VARCHAR).nullable(true)
+                    .add("lineNumber", SqlTypeName.INTEGER)
+                    .add("frameType", SqlTypeName.VARCHAR).nullable(true)
+                    .add("javaFrame", SqlTypeName.BOOLEAN)
+                    .build();
+        }
+
+        @Override
+        public Enumerable<@Nullable Object[]> scan(DataContext root) {
+            if (stackTrace == null) {
+                return Linq4j.emptyEnumerable();
+            }
+
+            return Linq4j.asEnumerable(() -> IntStream.range(0, stackTrace.getFrameCount())
+                    .mapToObj(this::toRow)
+                    .iterator());
+        }
+
+        private Object[] toRow(int depth) {
+            JfrStackFrame frame = stackTrace.getFrame(depth);
+
+            return new Object[]{
+                    depth,
+                    frame.getClassName(),
+                    frame.getMethodName(),
+                    frame.getDescriptor(),
+                    frame.getLineNumber(),
+                    frame.getType(),
+                    frame.isJavaFrame()
+            };
+        }
+    }
+}
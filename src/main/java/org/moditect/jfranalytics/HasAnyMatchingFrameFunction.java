@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.apache.calcite.schema.ScalarFunction;
+import org.apache.calcite.schema.impl.ScalarFunctionImpl;
+
+/**
+ * Whether a {@link JfrStackTrace} contains a frame matching any of the given
+ * regular expressions. All expressions are tested against each frame in one
+ * pass over the stack trace, see {@link FramePattern}.
+ */
+public class HasAnyMatchingFrameFunction {
+
+    public static final ScalarFunction INSTANCE = ScalarFunctionImpl.create(HasAnyMatchingFrameFunction.class, "eval");
+
+    private volatile Patterns last;
+
+    public boolean eval(Object stackTrace, List<String> patterns) {
+        if (stackTrace == null) {
+            return true;
+        }
+        if (!(stackTrace instanceof JfrStackTrace)) {
+            throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
+        }
+        if (patterns == null || patterns.isEmpty() || patterns.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("At least one pattern must be given");
+        }
+
+        Patterns last = this.last;
+        if (last == null || !last.given.equals(patterns)) {
+            last = new Patterns(List.copyOf(patterns), FramePattern.of(trim(patterns)).matcher());
+            this.last = last;
+        }
+
+        return last.matcher.matchesAny((JfrStackTrace) stackTrace);
+    }
+
+    /**
+     * The elements of array literals such as {@code ARRAY['a', 'bc']} are padded to
+     * a common length by Calcite. Rendered frames never end with a blank, so
+     * trailing blanks are removed, rather than making patterns unmatchable.
+     */
+    private static List<String> trim(List<String> patterns) {
+        return patterns.stream().map(String::stripTrailing).collect(Collectors.toUnmodifiableList());
+    }
+
+    private static class Patterns {
+
+        private final List<String> given;
+        private final FramePattern.Matcher matcher;
+
+        private Patterns(List<String> given, FramePattern.Matcher matcher) {
+            this.given = given;
+            this.matcher = matcher;
+        }
+    }
+}
@@ -15,41 +15,38 @@
  */
 package org.moditect.jfranalytics;
 
-import java.util.List;
-
 import org.apache.calcite.schema.ScalarFunction;
 import org.apache.calcite.schema.impl.ScalarFunctionImpl;
 
-import jdk.jfr.consumer.RecordedFrame;
-import jdk.jfr.consumer.RecordedStackTrace;
-
 /**
- * Truncates a {@link RecordedStackTrace} to the given maximum depth.
+ * Whether a {@link JfrStackTrace} contains a frame matching a given regular
+ * expression. The pattern is compiled once, as the expression usually is a
+ * literal, and the results of matching frames are memoized, see
+ * {@link FramePattern}.
  */
 public class HasMatchingFrameFunction {
 
     public static final ScalarFunction INSTANCE = ScalarFunctionImpl.create(HasMatchingFrameFunction.class, "eval");
 
-    public boolean eval(Object recordedStackTrace, String pattern) {
-        if (recordedStackTrace == null) {
+    private volatile FramePattern.Matcher matcher;
+
+    public boolean eval(Object stackTrace, String pattern) {
+        if (stackTrace == null) {
             return true;
         }
-        if (!(recordedStackTrace instanceof RecordedStackTrace)) {
-            throw new IllegalArgumentException("Unexpected value type: " + recordedStackTrace);
+        if (!(stackTrace instanceof JfrStackTrace)) {
+            throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
         }
         if (pattern == null) {
             throw new IllegalArgumentException("A pattern must be given");
         }
 
-        List<RecordedFrame> frames = ((RecordedStackTrace) recordedStackTrace).getFrames();
-
-        for (RecordedFrame recordedFrame : frames) {
-            String frameAsText = FrameHelper.asText(recordedFrame);
-            if (frameAsText != null && frameAsText.matches(pattern)) {
-                return true;
-            }
+        FramePattern.Matcher matcher = this.matcher;
+        if (matcher == null || !matcher.getPattern().getRegexes().get(0).equals(pattern)) {
+            matcher = FramePattern.of(pattern).matcher();
+            this.matcher = matcher;
         }
 
-        return false;
+        return matcher.matchesAny((JfrStackTrace) stackTrace);
     }
 }
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes one chunk of a JFR recording file. Each chunk is self-contained,
+ * i.e. it comes with its own metadata and constant pools, and it can be parsed
+ * independently of all other chunks of a recording.
+ *
+ * @see https://github.com/openjdk/jdk/blob/jdk-17%2B35/src/jdk.jfr/share/classes/jdk/jfr/internal/consumer/ChunkHeader.java
+ */
+public class JfrChunk {
+
+    private static final int HEADER_SIZE = 68;
+    private static final byte[] MAGIC = { 'F', 'L', 'R', '\0' };
+
+    private final int index;
+    private final long offset;
+    private final long size;
+    private final long metadataOffset;
+    private final long startNanos;
+    private final long durationNanos;
+    private final long startTicks;
+    private final long ticksPerSecond;
+
+    public JfrChunk(int index, long offset, long size, long metadataOffset, long startNanos, long durationNanos, long startTicks,
+                    long ticksPerSecond) {
+        this.index = index;
+        this.offset = offset;
+        this.size = size;
+        this.metadataOffset = metadataOffset;
+        this.startNanos = startNanos;
+        this.durationNanos = durationNanos;
+        this.startTicks = startTicks;
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Reads the headers of all the chunks of the given recording file, without
+     * reading any of the chunks' contents.
+     */
+    public static List<JfrChunk> readChunks(Path jfrFile) throws IOException {
+        List<JfrChunk> chunks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(jfrFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long offset = 0;
+
+            while (offset < fileSize) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (channel.read(header, offset + header.position()) < 0) {
+                        throw new IOException("Incomplete chunk header at offset " + offset + " of JFR file " + jfrFile);
+                    }
+                }
+
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (header.get(i) != MAGIC[i]) {
+                        throw new IOException("Not a JFR file: " + jfrFile);
+                    }
+                }
+
+                long size = header.getLong(8);
+                if (size < HEADER_SIZE || offset + size > fileSize) {
+                    throw new IOException("Invalid chunk size " + size + " at offset " + offset + " of JFR file " + jfrFile);
+                }
+
+                chunks.add(new JfrChunk(chunks.size(), offset, size, offset + header.getLong(24), header.getLong(32), header.getLong(40),
+                        header.getLong(48), header.getLong(56)));
+                offset += size;
+            }
+        }
+
+        return chunks;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the position of the chunk's (last) metadata event in the file.
+     */
+    public long getMetadataOffset() {
+        return metadataOffset;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getEndNanos() {
+        return startNanos + durationNanos;
+    }
+
+    public long getStartTicks() {
+        return startTicks;
+    }
+
+    public long getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /**
+     * Returns the position of the first event in the file.
+     */
+    public long getEventsOffset() {
+        return offset + HEADER_SIZE;
+    }
+
+    /**
+     * Converts the given timestamp in ticks, as used by the events of this chunk,
+     * into nanoseconds since the epoch.
+     */
+    public long toNanos(long ticks) {
+        return startNanos + (long) ((ticks - startTicks) / (ticksPerSecond / 1_000_000_000.0));
+    }
+
+    @Override
+    public String toString() {
+        return "JfrChunk [index=" + index + ", offset=" + offset + ", size=" + size + ", startNanos=" + startNanos + ", durationNanos=" + durationNanos
+                + "]";
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The decoded events of one type, stored column by column. Numeric and boolean
+ * values are kept in primitive arrays of the values' type, e.g. an
+ * {@code int[]} for a column of {@code Integer} values, if all values of a
+ * column are of the same type. String columns with not more than {@link #MAX_DICTIONARY_SIZE}
+ * distinct values are dictionary-encoded, i.e. each distinct value is stored
+ * once, and rows refer to it by their code. All other values are kept as object
+ * references.
+ */
+public class JfrColumnarTable {
+
+    private static final int OBJECT_SIZE = 64;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int MAX_DICTIONARY_SIZE = 65_536;
+
+    private final int rowCount;
+    private final Column[] columns;
+    private final long size;
+
+    private JfrColumnarTable(int rowCount, Column[] columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+
+        long size = 0;
+        for (Column column : columns) {
+            size += column.size;
+        }
+        this.size = size;
+    }
+
+    /**
+     * Creates a table from the given rows; the enumerator is closed afterwards.
+     */
+    public static JfrColumnarTable of(Enumerator<Object[]> rows, int columnCount) {
+        ColumnBuilder[] builders = new ColumnBuilder[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            builders[i] = new ColumnBuilder();
+        }
+
+        int rowCount = 0;
+
+        try {
+            while (rows.moveNext()) {
+                Object[] row = rows.current();
+                for (int i = 0; i < columnCount; i++) {
+                    builders[i].add(row[i]);
+                }
+                rowCount++;
+            }
+        }
+        finally {
+            rows.close();
+        }
+
+        Column[] columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = builders[i].build();
+        }
+
+        return new JfrColumnarTable(rowCount, columns);
+    }
+
+    /**
+     * Returns the minimum number of bytes a table with the given number of rows
+     * of the given type would occupy, i.e. assuming that values are stored in the
+     * narrowest representation their SQL type allows, and that strings are
+     * dictionary-encoded.
+     */
+    public static long estimateSize(long rowCount, RelDataType rowType) {
+        long rowSize = 0;
+
+        for (RelDataTypeField field : rowType.getFieldList()) {
+            switch (field.getType().getSqlTypeName()) {
+                case BOOLEAN:
+                case TINYINT:
+                case CHAR:
+                case VARCHAR:
+                    rowSize += 1;
+                    break;
+                case SMALLINT:
+                    rowSize += 2;
+                    break;
+                case INTEGER:
+                case REAL:
+                    rowSize += 4;
+                    break;
+                case BIGINT:
+                case DOUBLE:
+                case TIMESTAMP:
+                    rowSize += 8;
+                    break;
+                default:
+                    rowSize += REFERENCE_SIZE;
+                    break;
+            }
+        }
+
+        return rowCount * rowSize;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the estimated number of bytes occupied by this table. Referenced
+     * objects such as stack traces are accounted with a fixed size, also if
+     * shared by multiple rows.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public @Nullable Object getValue(int column, int row) {
+        return columns[column].get(row);
+    }
+
+    /**
+     * Returns the given columns of all rows matching the given filters.
+     */
+    public Enumerable<Object[]> scan(int[] projects, EventFilter[] filters) {
+        return new AbstractEnumerable<>() {
+
+            @Override
+            public Enumerator<Object[]> enumerator() {
+                return new ColumnarEnumerator(projects, filters);
+            }
+        };
+    }
+
+    private class ColumnarEnumerator implements Enumerator<Object[]> {
+
+        private final int[] projects;
+        private final RowFilter[] filters;
+        private int row = -1;
+        private Object[] current;
+
+        ColumnarEnumerator(int[] projects, EventFilter[] filters) {
+            this.projects = projects;
+            this.filters = new RowFilter[filters.length];
+
+            for (int i = 0; i < filters.length; i++) {
+                this.filters[i] = columns[filters[i].getColumn()].getFilter(filters[i]);
+            }
+        }
+
+        @Override
+        public Object[] current() {
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+
+            return current;
+        }
+
+        @Override
+        public boolean moveNext() {
+            while (++row < rowCount) {
+                if (matches(row)) {
+                    current = new Object[projects.length];
+                    for (int i = 0; i < projects.length; i++) {
+                        current[i] = columns[projects[i]].get(row);
+                    }
+                    return true;
+                }
+            }
+
+            row = rowCount;
+            current = null;
+            return false;
+        }
+
+        private boolean matches(int row) {
+            for (RowFilter filter : filters) {
+                if (!filter.matches(row)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            row = -1;
+            current = null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private enum Kind {
+        NONE,
+        BYTE,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        BOOLEAN,
+        STRING,
+        OBJECT;
+
+        static Kind of(Object value) {
+            if (value instanceof Byte) {
+                return BYTE;
+            }
+            else if (value instanceof Short) {
+                return SHORT;
+            }
+            else if (value instanceof Integer) {
+                return INT;
+            }
+            else if (value instanceof Long) {
+                return LONG;
+            }
+            else if (value instanceof Float) {
+                return FLOAT;
+            }
+            else if (value instanceof Double) {
+                return DOUBLE;
+            }
+            else if (value instanceof Boolean) {
+                return BOOLEAN;
+            }
+            else {
+                return OBJECT;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowFilter {
+
+        boolean matches(int row);
+    }
+
+    private static class Column {
+
+        private final Kind kind;
+        private final Object values;
+        private final @Nullable BitSet nulls;
+        private final @Nullable String[] dictionary;
+        private final long size;
+
+        Column(Kind kind, Object values, @Nullable BitSet nulls, long size) {
+            this(kind, values, nulls, null, size);
+        }
+
+        /**
+         * @param dictionary The distinct values of a {@link Kind#STRING} column; the
+         *        values of such column are the codes of the rows' values, i.e. their
+         *        position within the dictionary
+         */
+        Column(Kind kind, Object values, @Nullable BitSet nulls, @Nullable String[] dictionary, long size) {
+            this.kind = kind;
+            this.values = values;
+            this.nulls = nulls;
+            this.dictionary = dictionary;
+            this.size = size;
+        }
+
+        /**
+         * Returns a filter for the rows of this column. For dictionary-encoded
+         * columns, the filter is evaluated once per distinct value, and rows are
+         * matched by their code.
+         */
+        RowFilter getFilter(EventFilter filter) {
+            if (kind != Kind.STRING) {
+                return row -> filter.matches(get(row));
+            }
+
+            boolean[] matchingCodes = new boolean[dictionary.length];
+            for (int code = 0; code < dictionary.length; code++) {
+                matchingCodes[code] = filter.matches(dictionary[code]);
+            }
+
+            boolean matchingNull = filter.matches((Object) null);
+
+            return row -> nulls != null && nulls.get(row) ? matchingNull : matchingCodes[getCode(row)];
+        }
+
+        private int getCode(int row) {
+            if (values instanceof byte[]) {
+                return ((byte[]) values)[row] & 0xFF;
+            }
+            else {
+                return ((short[]) values)[row] & 0xFFFF;
+            }
+        }
+
+        @Nullable
+        Object get(int row) {
+            if (nulls != null && nulls.get(row)) {
+                return null;
+            }
+
+            switch (kind) {
+                case BYTE:
+                    return ((byte[]) values)[row];
+                case SHORT:
+                    return ((short[]) values)[row];
+                case INT:
+                    return ((int[]) values)[row];
+                case LONG:
+                    return ((long[]) values)[row];
+                case FLOAT:
+                    return ((float[]) values)[row];
+                case DOUBLE:
+                    return ((double[]) values)[row];
+                case BOOLEAN:
+                    return ((BitSet) values).get(row);
+                case STRING:
+                    return dictionary[getCode(row)];
+                case OBJECT:
+                    return ((Object[]) values)[row];
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Collects the values of one column. Integral values are collected as longs
+     * and floating point values as doubles, and are stored as arrays of the
+     * values' type upon {@link #build()}. Should a column contain values of different types, all
+     * its values are stored as objects.
+     */
+    private static class ColumnBuilder {
+
+        private Kind kind = Kind.NONE;
+        private long[] longs = new long[0];
+        private double[] doubles = new double[0];
+        private Object[] objects = new Object[0];
+        private final BitSet booleans = new BitSet();
+        private final BitSet nulls = new BitSet();
+        private long objectsSize;
+        private int count;
+
+        void add(@Nullable Object value) {
+            if (value == null) {
+                nulls.set(count);
+            }
+            else {
+                Kind valueKind = Kind.of(value);
+
+                if (kind == Kind.NONE) {
+                    kind = valueKind;
+                }
+                else if (kind != valueKind && kind != Kind.OBJECT) {
+                    toObjects();
+                }
+
+                switch (kind) {
+                    case BYTE:
+                    case SHORT:
+                    case INT:
+                    case LONG:
+                        longs = ensureCapacity(longs);
+                        longs[count] = ((Number) value).longValue();
+                        break;
+                    case FLOAT:
+                    case DOUBLE:
+                        doubles = ensureCapacity(doubles);
+                        doubles[count] = ((Number) value).doubleValue();
+                        break;
+                    case BOOLEAN:
+                        booleans.set(count, (Boolean) value);
+                        break;
+                    default:
+                        objects = ensureCapacity(objects);
+                        objects[count] = value;
+                        objectsSize += sizeOf(value);
+                        break;
+                }
+            }
+
+            count++;
+        }
+
+        private void toObjects() {
+            Object[] converted = new Object[Math.max(16, count * 2)];
+            Column column = build();
+
+            for (int i = 0; i < count; i++) {
+                converted[i] = column.get(i);
+                if (converted[i] != null) {
+                    objectsSize += sizeOf(converted[i]);
+                }
+            }
+
+            kind = Kind.OBJECT;
+            objects = converted;
+            longs = new long[0];
+            doubles = new double[0];
+            booleans.clear();
+        }
+
+        private long[] ensureCapacity(long[] array) {
+            return array.length > count ? array : Arrays.copyOf(array, Math.max(16, count * 2));
+        }
+
+        private double[] ensureCapacity(double[] array) {
+            return array.length > count ? array : Arrays.copyOf(array, Math.max(16, count * 2));
+        }
+
+        private Object[] ensureCapacity(Object[] array) {
+            return array.length > count ? array : Arrays.copyOf(array, Math.max(16, count * 2));
+        }
+
+        Column build() {
+            BitSet nulls = this.nulls.isEmpty() ? null : (BitSet) this.nulls.clone();
+            long nullsSize = nulls != null ? nulls.size() / 8 : 0;
+            // trailing null values don't occupy any slots yet
+            long[] longs = Arrays.copyOf(this.longs, count);
+            double[] doubles = Arrays.copyOf(this.doubles, count);
+
+            switch (kind) {
+                case BYTE:
+                    byte[] bytes = new byte[count];
+                    for (int i = 0; i < count; i++) {
+                        bytes[i] = (byte) longs[i];
+                    }
+                    return new Column(kind, bytes, nulls, count + nullsSize);
+                case SHORT:
+                    short[] shorts = new short[count];
+                    for (int i = 0; i < count; i++) {
+                        shorts[i] = (short) longs[i];
+                    }
+                    return new Column(kind, shorts, nulls, 2L * count + nullsSize);
+                case INT:
+                    int[] ints = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        ints[i] = (int) longs[i];
+                    }
+                    return new Column(kind, ints, nulls, 4L * count + nullsSize);
+                case LONG:
+                    return new Column(kind, longs, nulls, 8L * count + nullsSize);
+                case FLOAT:
+                    float[] floats = new float[count];
+                    for (int i = 0; i < count; i++) {
+                        floats[i] = (float) doubles[i];
+                    }
+                    return new Column(kind, floats, nulls, 4L * count + nullsSize);
+                case DOUBLE:
+                    return new Column(kind, doubles, nulls, 8L * count + nullsSize);
+                case BOOLEAN:
+                    return new Column(kind, booleans.clone(), nulls, count / 8 + nullsSize);
+                case OBJECT:
+                    Column encoded = buildDictionaryEncoded(nulls, nullsSize);
+                    return encoded != null ? encoded : buildObjects(nulls, nullsSize);
+                default:
+                    return buildObjects(nulls, nullsSize);
+            }
+        }
+
+        private Column buildObjects(@Nullable BitSet nulls, long nullsSize) {
+            return new Column(Kind.OBJECT, Arrays.copyOf(objects, count), nulls, REFERENCE_SIZE * count + objectsSize + nullsSize);
+        }
+
+        /**
+         * Returns the dictionary-encoded form of this column, if all its values are
+         * strings and it doesn't have too many distinct values; {@code null}
+         * otherwise. Codes are stored as bytes or shorts, depending on the number of
+         * distinct values.
+         */
+        private @Nullable Column buildDictionaryEncoded(@Nullable BitSet nulls, long nullsSize) {
+            Object[] objects = Arrays.copyOf(this.objects, count);
+            Map<String, Integer> codes = new HashMap<>();
+            int[] rowCodes = new int[count];
+            long dictionarySize = 0;
+
+            for (int i = 0; i < count; i++) {
+                Object value = objects[i];
+
+                if (value == null) {
+                    continue;
+                }
+                if (!(value instanceof String)) {
+                    return null;
+                }
+
+                Integer code = codes.get(value);
+                if (code == null) {
+                    if (codes.size() == MAX_DICTIONARY_SIZE) {
+                        return null;
+                    }
+
+                    code = codes.size();
+                    codes.put((String) value, code);
+                    dictionarySize += REFERENCE_SIZE + sizeOf(value);
+                }
+
+                rowCodes[i] = code;
+            }
+
+            String[] dictionary = new String[codes.size()];
+            for (Map.Entry<String, Integer> entry : codes.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+
+            if (dictionary.length <= 256) {
+                byte[] bytes = new byte[count];
+                for (int i = 0; i < count; i++) {
+                    bytes[i] = (byte) rowCodes[i];
+                }
+                return new Column(Kind.STRING, bytes, nulls, dictionary, count + dictionarySize + nullsSize);
+            }
+            else {
+                short[] shorts = new short[count];
+                for (int i = 0; i < count; i++) {
+                    shorts[i] = (short) rowCodes[i];
+                }
+                return new Column(Kind.STRING, shorts, nulls, dictionary, 2L * count + dictionarySize + nullsSize);
+            }
+        }
+
+        private static long sizeOf(Object value) {
+            if (value instanceof String) {
+                return 40 + ((String) value).length();
+            }
+            else if (value instanceof Object[]) {
+                long size = 16;
+                for (Object element : (Object[]) value) {
+                    size += REFERENCE_SIZE + (element != null ? sizeOf(element) : 0);
+                }
+                return size;
+            }
+            else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+                return 16;
+            }
+            else {
+                return OBJECT_SIZE;
+            }
+        }
+    }
+}
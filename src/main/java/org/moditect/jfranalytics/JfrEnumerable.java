@@ -15,52 +15,36 @@
  */
 package org.moditect.jfranalytics;
 
-import java.io.IOException;
-import java.nio.file.Path;
-import java.util.ArrayList;
+import java.time.Instant;
 import java.util.List;
 
 import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerator;
-import org.apache.calcite.linq4j.Linq4j;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import jdk.jfr.EventType;
-import jdk.jfr.consumer.EventStream;
 
 public class JfrEnumerable extends AbstractEnumerable<Object[]> {
 
-    private final Path jfrFile;
+    private final JfrRecording recording;
     private final EventType eventType;
-    private final AttributeValueConverter[] converters;
-
-    public JfrEnumerable(Path jfrFile, EventType eventType, AttributeValueConverter[] converters) {
-        this.jfrFile = jfrFile;
+    private final List<JfrChunk> chunks;
+    private final RowMaterializer materializer;
+    private final EventFilter[] filters;
+    private final @Nullable Instant startTime;
+
+    public JfrEnumerable(JfrRecording recording, EventType eventType, List<JfrChunk> chunks, RowMaterializer materializer, EventFilter[] filters,
+                         @Nullable Instant startTime) {
+        this.recording = recording;
         this.eventType = eventType;
-        this.converters = converters;
-        ;
+        this.chunks = chunks;
+        this.materializer = materializer;
+        this.filters = filters;
+        this.startTime = startTime;
     }
 
     @Override
     public Enumerator<Object[]> enumerator() {
-        try (var es = EventStream.openFile(jfrFile)) {
-            List<Object[]> results = new ArrayList<>();
-
-            es.onEvent(eventType.getName(), event -> {
-                Object[] row = new Object[converters.length];
-
-                for (int i = 0; i < converters.length; i++) {
-                    row[i] = converters[i].getValue(event);
-                }
-
-                results.add(row);
-            });
-
-            es.start();
-
-            return Linq4j.enumerator(results);
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return new JfrEnumerator(recording, eventType, chunks, materializer, filters, startTime);
     }
 }
@@ -0,0 +1,344 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.EventStream;
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * A pull-based enumerator over the events of one type in a JFR recording. The
+ * recording is parsed by the recording's pool, which hands over batches of rows
+ * via bounded queues, i.e. memory consumption is independent of the number of
+ * events, and the first rows can be consumed before the file has been parsed
+ * completely.
+ * <p>
+ * For recordings with multiple chunks, up to {@link JfrRecording#getParallelism()}
+ * chunks are parsed concurrently. If the recording is {@link JfrRecording#isOrdered()
+ * ordered}, the chunks' rows are returned in the order of the chunks, otherwise in
+ * the order they have been parsed.
+ */
+class JfrEnumerator implements Enumerator<Object[]> {
+
+    static final int BATCH_SIZE = 1024;
+    static final int QUEUE_CAPACITY = 4;
+    private static final List<Object[]> END_OF_STREAM = Collections.emptyList();
+
+    private final JfrRecording recording;
+    private final EventType eventType;
+    private final List<JfrChunk> chunks;
+    private final RowMaterializer materializer;
+    private final EventFilter[] filters;
+    private final @Nullable Instant startTime;
+
+    private Scan scan;
+    private List<Object[]> batch;
+    private int position;
+    private Object[] current;
+
+    JfrEnumerator(JfrRecording recording, EventType eventType, List<JfrChunk> chunks, RowMaterializer materializer, EventFilter[] filters,
+                  @Nullable Instant startTime) {
+        this.recording = recording;
+        this.eventType = eventType;
+        this.chunks = chunks;
+        this.materializer = materializer;
+        this.filters = filters;
+        this.startTime = startTime;
+    }
+
+    @Override
+    public Object[] current() {
+        if (current == null) {
+            throw new NoSuchElementException();
+        }
+
+        return current;
+    }
+
+    @Override
+    public boolean moveNext() {
+        if (scan == null) {
+            scan = new Scan();
+            scan.start();
+        }
+
+        if (batch == END_OF_STREAM) {
+            return false;
+        }
+        else if (batch != null && position < batch.size()) {
+            current = batch.get(position++);
+            return true;
+        }
+
+        batch = scan.take();
+
+        if (batch == END_OF_STREAM) {
+            current = null;
+            return false;
+        }
+
+        position = 0;
+        current = batch.get(position++);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        close();
+        batch = null;
+        current = null;
+    }
+
+    @Override
+    public void close() {
+        if (scan != null) {
+            scan.close();
+            scan = null;
+        }
+    }
+
+    private boolean matches(RecordedEvent event) {
+        for (EventFilter filter : filters) {
+            if (!filter.matches(event)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * One pass over the recording, split up into one or more readers.
+     */
+    private class Scan {
+
+        private final List<Reader> readers = new ArrayList<>();
+        private final Set<EventStream> openStreams = ConcurrentHashMap.newKeySet();
+        private volatile boolean closed;
+        private volatile Throwable failure;
+        private int submitted;
+        private int finished;
+
+        Scan() {
+            // no chunk contains any matching events
+            if (chunks.isEmpty()) {
+                return;
+            }
+            // read the complete file in one go; chunks of files concatenated from multiple recordings can't be read
+            // that way, as their constant pools would get mixed up
+            else if (recording.getChunks().size() == 1) {
+                readers.add(new Reader(null, new ArrayBlockingQueue<>(QUEUE_CAPACITY)));
+            }
+            // read the required chunks one after another
+            else if (recording.getParallelism() == 1) {
+                readers.add(new Reader(chunks, new ArrayBlockingQueue<>(QUEUE_CAPACITY)));
+            }
+            // read the required chunks concurrently; when ordered, each chunk gets its own queue,
+            // and these are drained one after another
+            else {
+                BlockingQueue<List<Object[]>> sharedQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY * recording.getParallelism());
+
+                for (JfrChunk chunk : chunks) {
+                    BlockingQueue<List<Object[]>> queue = recording.isOrdered() ? new ArrayBlockingQueue<>(QUEUE_CAPACITY) : sharedQueue;
+                    readers.add(new Reader(List.of(chunk), queue));
+                }
+            }
+        }
+
+        void start() {
+            while (submitted < recording.getParallelism() && submitted < readers.size()) {
+                recording.getPool().execute(readers.get(submitted++));
+            }
+        }
+
+        List<Object[]> take() {
+            while (!closed && finished < readers.size()) {
+                // when ordered, readers are drained in the order of their chunks; otherwise, all share one queue
+                Reader reader = readers.get(finished);
+                List<Object[]> next;
+
+                try {
+                    next = reader.queue.take();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while awaiting JFR events", e);
+                }
+
+                if (next != END_OF_STREAM) {
+                    return next;
+                }
+
+                if (failure != null) {
+                    throw new RuntimeException("Couldn't read JFR file " + recording.getFile(), failure);
+                }
+
+                finished++;
+                if (submitted < readers.size()) {
+                    recording.getPool().execute(readers.get(submitted++));
+                }
+            }
+
+            return END_OF_STREAM;
+        }
+
+        void close() {
+            closed = true;
+
+            for (EventStream eventStream : openStreams) {
+                eventStream.close();
+            }
+        }
+
+        /**
+         * Reads the given chunks, or the complete recording file, and hands over the
+         * resulting rows to the consumer.
+         */
+        private class Reader implements Runnable {
+
+            private final @Nullable List<JfrChunk> chunks;
+            private final BlockingQueue<List<Object[]>> queue;
+
+            Reader(@Nullable List<JfrChunk> chunks, BlockingQueue<List<Object[]>> queue) {
+                this.chunks = chunks;
+                this.queue = queue;
+            }
+
+            @Override
+            public void run() {
+                List<Object[]> pending = new ArrayList<>(BATCH_SIZE);
+
+                try {
+                    if (chunks == null) {
+                        read(recording.getFile(), pending);
+                    }
+                    else {
+                        for (JfrChunk chunk : chunks) {
+                            if (closed) {
+                                break;
+                            }
+                            Path chunkFile = recording.getChunkFile(chunk, () -> closed);
+                            if (chunkFile == null) {
+                                break;
+                            }
+                            read(chunkFile, pending);
+                        }
+                    }
+
+                    if (!pending.isEmpty()) {
+                        put(pending);
+                    }
+                }
+                catch (Throwable t) {
+                    if (!closed) {
+                        failure = t;
+                    }
+                }
+                finally {
+                    put(END_OF_STREAM);
+                }
+            }
+
+            private void read(Path jfrFile, List<Object[]> pending) throws IOException {
+                EventStream es = EventStream.openFile(jfrFile);
+                openStreams.add(es);
+
+                try {
+                    if (closed) {
+                        return;
+                    }
+
+                    es.setOrdered(recording.isOrdered());
+
+                    // skips events ending before the start time without materializing them
+                    if (startTime != null) {
+                        es.setStartTime(startTime);
+                    }
+
+                    es.onEvent(eventType.getName(), event -> {
+                        if (!matches(event)) {
+                            return;
+                        }
+
+                        pending.add(materializer.toRow(event));
+
+                        if (pending.size() == BATCH_SIZE) {
+                            put(new ArrayList<>(pending));
+                            pending.clear();
+                        }
+                    });
+
+                    es.start();
+                }
+                finally {
+                    openStreams.remove(es);
+                    es.close();
+                }
+            }
+
+            /**
+             * Hands over the given batch to the consumer, blocking while the queue is full.
+             * Gives up once the scan has been closed, so that the reader can't get stuck
+             * when a query doesn't consume all rows (e.g. with LIMIT). Blocking is
+             * signalled to the pool, allowing it to compensate for blocked workers.
+             */
+            private void put(List<Object[]> batch) {
+                try {
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+                        boolean done;
+
+                        @Override
+                        public boolean isReleasable() {
+                            if (!done) {
+                                done = closed || queue.offer(batch);
+                            }
+                            return done;
+                        }
+
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            while (!done) {
+                                done = closed || queue.offer(batch, 100, TimeUnit.MILLISECONDS);
+                            }
+                            return true;
+                        }
+                    });
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
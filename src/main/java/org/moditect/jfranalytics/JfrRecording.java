@@ -0,0 +1,407 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.lang.ref.Cleaner;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * A JFR recording file and its chunks, and the settings for scanning it.
+ * <p>
+ * The JFR event stream API can only read complete files. In order to read
+ * specific chunks only, these are copied into separate files on demand, which
+ * then are reused by all subsequent scans of the recording. Chunks are copied
+ * by the readers requiring them, one reader per chunk, without blocking readers
+ * of other chunks. The copies are deleted when closing the recording, or
+ * otherwise once the recording isn't referenced any longer.
+ * <p>
+ * Optionally, the recording's index is persisted in a file next to the
+ * recording (named like the recording, with an added ".idx" extension) and
+ * reused when opening the recording again.
+ */
+public class JfrRecording implements AutoCloseable {
+
+    private static final System.Logger LOGGER = System.getLogger(JfrRecording.class.getName());
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final long COPY_SLICE_SIZE = 8 * 1024 * 1024;
+
+    private final Path file;
+    private final int parallelism;
+    private final boolean ordered;
+    private final List<JfrChunk> chunks;
+    private final ChunkFiles chunkFiles;
+    private final Object[] chunkLocks;
+    private final Cleaner.Cleanable cleanable;
+    private ForkJoinPool pool;
+    private List<EventType> eventTypes;
+    private JfrRecordingIndex index;
+    private JfrStackTraces stackTraces;
+    private final StackTraceInterner stackTraceInterner;
+
+    public JfrRecording(Path file) {
+        this(file, Runtime.getRuntime().availableProcessors(), true);
+    }
+
+    /**
+     * @param parallelism The number of chunks to parse concurrently during a scan
+     * @param ordered Whether events should be returned in the order of their start
+     *        time (per chunk), or in any order
+     */
+    public JfrRecording(Path file, int parallelism, boolean ordered) {
+        this(file, parallelism, ordered, false);
+    }
+
+    /**
+     * @param parallelism The number of chunks to parse concurrently during a scan
+     * @param ordered Whether events should be returned in the order of their start
+     *        time (per chunk), or in any order
+     * @param persistentIndex Whether to read the recording's index from its index
+     *        file, or build and write the index file if it doesn't exist yet
+     */
+    public JfrRecording(Path file, int parallelism, boolean ordered, boolean persistentIndex) {
+        this(file, parallelism, ordered, persistentIndex, null);
+    }
+
+    /**
+     * @param parallelism The number of chunks to parse concurrently during a scan
+     * @param ordered Whether events should be returned in the order of their start
+     *        time (per chunk), or in any order
+     * @param persistentIndex Whether to read the recording's index from its index
+     *        file, or build and write the index file if it doesn't exist yet
+     * @param cache The cache for the tables of this recording, if any; stack
+     *        traces are shared with all other recordings of the same file using
+     *        that cache, so that they have the same ids
+     */
+    public JfrRecording(Path file, int parallelism, boolean ordered, boolean persistentIndex, @Nullable JfrTableCache cache) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+
+        this.file = file;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+        this.stackTraceInterner = cache != null ? cache.getStackTraceInterner(file) : new StackTraceInterner();
+
+        if (persistentIndex) {
+            this.index = getPersistentIndex(file);
+            this.chunks = index.getChunks();
+        }
+        else {
+            try {
+                this.chunks = Collections.unmodifiableList(JfrChunk.readChunks(file));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't read chunks of JFR file " + file, e);
+            }
+        }
+
+        this.chunkFiles = new ChunkFiles(chunks.size());
+        this.chunkLocks = new Object[chunks.size()];
+        for (int i = 0; i < chunkLocks.length; i++) {
+            chunkLocks[i] = new Object();
+        }
+        this.cleanable = CLEANER.register(this, chunkFiles);
+    }
+
+    public static Path getIndexFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    private static JfrRecordingIndex getPersistentIndex(Path file) {
+        Path indexFile = getIndexFile(file);
+        JfrRecordingIndex index = JfrRecordingIndex.read(indexFile, file);
+
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            index = JfrRecordingIndex.build(file, JfrChunk.readChunks(file));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't index JFR file " + file, e);
+        }
+
+        try {
+            index.write(indexFile, file);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Couldn't write index file {0}: {1}", indexFile, e.getMessage());
+        }
+
+        return index;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public List<JfrChunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns the event types of all chunks, read from the chunks' metadata only.
+     */
+    public synchronized List<EventType> getEventTypes() {
+        if (eventTypes == null) {
+            try (var recordingFile = new RecordingFile(file)) {
+                eventTypes = Collections.unmodifiableList(recordingFile.readEventTypes());
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't read event types of JFR file " + file, e);
+            }
+        }
+
+        return eventTypes;
+    }
+
+    /**
+     * Returns the index of this recording, built upon first use.
+     */
+    public synchronized JfrRecordingIndex getIndex() {
+        if (index == null) {
+            try {
+                index = JfrRecordingIndex.build(file, chunks);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't index JFR file " + file, e);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the index of this recording if it has been read or built already,
+     * without building it otherwise.
+     */
+    public synchronized @Nullable JfrRecordingIndex getIndexIfPresent() {
+        return index;
+    }
+
+    /**
+     * Returns the distinct stack traces of this recording, collected upon first
+     * use.
+     */
+    public synchronized JfrStackTraces getStackTraces() {
+        if (stackTraces == null) {
+            try {
+                stackTraces = JfrStackTraces.read(file, stackTraceInterner);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't read stack traces of JFR file " + file, e);
+            }
+        }
+
+        return stackTraces;
+    }
+
+    /**
+     * Returns the interner shared by all the stack trace columns of this
+     * recording.
+     */
+    StackTraceInterner getStackTraceInterner() {
+        return stackTraceInterner;
+    }
+
+    /**
+     * Returns the pool for parsing chunks, created upon first use.
+     */
+    public synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        return pool;
+    }
+
+    /**
+     * Returns all chunks which contain events of the given type starting within
+     * the given range (inclusive), as per the recording's index, plus all chunks
+     * which couldn't be indexed, in chunk order.
+     */
+    public List<JfrChunk> getChunks(String eventType, long minStartNanos, long maxStartNanos) {
+        JfrRecordingIndex index = getIndex();
+        boolean[] matching = new boolean[chunks.size()];
+
+        for (JfrRecordingIndex.Entry entry : index.getEntries(eventType)) {
+            if (entry.getMaxStartNanos() >= minStartNanos && entry.getMinStartNanos() <= maxStartNanos) {
+                matching[entry.getChunk()] = true;
+            }
+        }
+
+        List<JfrChunk> selected = new ArrayList<>();
+        for (JfrChunk chunk : chunks) {
+            if (matching[chunk.getIndex()] || !index.isIndexed(chunk.getIndex())) {
+                selected.add(chunk);
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Returns a file containing only the given chunk, extracting it from the
+     * recording file if needed.
+     */
+    public Path getChunkFile(JfrChunk chunk) throws IOException {
+        return getChunkFile(chunk, () -> false);
+    }
+
+    /**
+     * Returns a file containing only the given chunk, extracting it from the
+     * recording file if needed, or {@code null} if the extraction has been
+     * cancelled, e.g. because the scan requiring it has been closed.
+     */
+    Path getChunkFile(JfrChunk chunk, BooleanSupplier cancelled) throws IOException {
+        if (chunks.size() == 1) {
+            return file;
+        }
+
+        synchronized (chunkLocks[chunk.getIndex()]) {
+            Path chunkFile = chunkFiles.get(chunk.getIndex());
+            if (chunkFile != null) {
+                return chunkFile;
+            }
+
+            chunkFile = chunkFiles.getDirectory().resolve("chunk-" + chunk.getIndex() + ".jfr");
+            chunkFile.toFile().deleteOnExit();
+            boolean complete = false;
+
+            try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                    FileChannel target = FileChannel.open(chunkFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (position < chunk.getSize()) {
+                    if (cancelled.getAsBoolean()) {
+                        return null;
+                    }
+                    position += source.transferTo(chunk.getOffset() + position, Math.min(COPY_SLICE_SIZE, chunk.getSize() - position), target);
+                }
+                complete = true;
+            }
+            finally {
+                if (!complete) {
+                    Files.deleteIfExists(chunkFile);
+                }
+            }
+
+            chunkFiles.set(chunk.getIndex(), chunkFile);
+            return chunkFile;
+        }
+    }
+
+    /**
+     * Deletes the chunk files extracted from the recording file, shuts down the
+     * pool for parsing chunks, and releases the cached texts of its stack
+     * traces. Scans still running at that time may fail.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+        stackTraceInterner.getRenderer().clear();
+
+        synchronized (this) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The files of the chunks extracted from the recording file. Also serves as
+     * the action deleting these files when the recording gets garbage collected,
+     * so it must not refer to the recording.
+     */
+    private static class ChunkFiles implements Runnable {
+
+        private final Path[] files;
+        private Path directory;
+        private boolean closed;
+
+        ChunkFiles(int chunks) {
+            this.files = new Path[chunks];
+        }
+
+        synchronized Path get(int chunk) {
+            return files[chunk];
+        }
+
+        synchronized void set(int chunk, Path file) {
+            files[chunk] = file;
+        }
+
+        synchronized Path getDirectory() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Recording has been closed");
+            }
+
+            if (directory == null) {
+                directory = Files.createTempDirectory("jfr-analytics-");
+                directory.toFile().deleteOnExit();
+            }
+
+            return directory;
+        }
+
+        @Override
+        public synchronized void run() {
+            closed = true;
+
+            if (directory == null) {
+                return;
+            }
+
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(directory);
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Couldn't delete chunk files in {0}: {1}", directory, e.getMessage());
+            }
+
+            directory = null;
+            Arrays.fill(files, null);
+        }
+    }
+}
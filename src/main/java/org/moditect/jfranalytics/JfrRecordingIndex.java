@@ -0,0 +1,518 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The chunks of a recording, and the number of events and their start time
+ * range per chunk and event type. The index is built by walking through the
+ * event headers (size, type id, and start time) of all chunks, without parsing
+ * the actual events. Type ids are resolved via each chunk's own metadata, as
+ * they may differ between chunks written by different JVMs.
+ * <p>
+ * Chunks whose event headers can't be walked reliably, e.g. because they don't
+ * use compressed integers, are marked as unindexed. Such chunks have no
+ * entries and are never pruned from scans, i.e. they are always parsed
+ * completely.
+ * <p>
+ * The index can be persisted into a file next to the recording, so that it
+ * doesn't have to be rebuilt when opening the same recording again.
+ */
+public class JfrRecordingIndex {
+
+    private static final System.Logger LOGGER = System.getLogger(JfrRecordingIndex.class.getName());
+
+    private static final int MAGIC = 0x4A465249; // "JFRI"
+    private static final int VERSION = 2;
+
+    private static final long METADATA_TYPE_ID = 0;
+    private static final long CHECKPOINT_TYPE_ID = 1;
+
+    private static final byte STRING_ENCODING_NULL = 0;
+    private static final byte STRING_ENCODING_EMPTY_STRING = 1;
+    private static final byte STRING_ENCODING_UTF8_BYTE_ARRAY = 3;
+    private static final byte STRING_ENCODING_CHAR_ARRAY = 4;
+    private static final byte STRING_ENCODING_LATIN1_BYTE_ARRAY = 5;
+
+    private final List<JfrChunk> chunks;
+    private final Map<String, List<Entry>> entriesByEventType;
+    private final Set<Integer> unindexedChunks;
+
+    public JfrRecordingIndex(List<JfrChunk> chunks, List<Entry> entries) {
+        this(chunks, entries, Collections.emptySet());
+    }
+
+    public JfrRecordingIndex(List<JfrChunk> chunks, List<Entry> entries, Set<Integer> unindexedChunks) {
+        Map<String, List<Entry>> entriesByEventType = new HashMap<>();
+
+        for (Entry entry : entries) {
+            entriesByEventType.computeIfAbsent(entry.getEventType(), k -> new ArrayList<>()).add(entry);
+        }
+
+        for (List<Entry> entriesOfType : entriesByEventType.values()) {
+            entriesOfType.sort((e1, e2) -> Integer.compare(e1.getChunk(), e2.getChunk()));
+        }
+
+        this.chunks = Collections.unmodifiableList(chunks);
+        this.entriesByEventType = entriesByEventType;
+        this.unindexedChunks = Collections.unmodifiableSet(new TreeSet<>(unindexedChunks));
+    }
+
+    /**
+     * Builds the index for the given chunks of a recording. Chunks whose event
+     * headers fail validation are marked as unindexed rather than failing the
+     * whole index.
+     */
+    public static JfrRecordingIndex build(Path jfrFile, List<JfrChunk> chunks) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Set<Integer> unindexedChunks = new TreeSet<>();
+
+        try (Input input = new Input(jfrFile)) {
+            for (JfrChunk chunk : chunks) {
+                try {
+                    entries.addAll(walk(input, chunk));
+                }
+                catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to index chunk {0} of JFR file {1}, scanning it completely instead: {2}",
+                            chunk.getIndex(), jfrFile, e.getMessage());
+                    unindexedChunks.add(chunk.getIndex());
+                }
+            }
+        }
+
+        return new JfrRecordingIndex(chunks, entries, unindexedChunks);
+    }
+
+    /**
+     * Walks through the event headers of the given chunk. Fails if the walk
+     * doesn't line up with the chunk's structure, i.e. if an event exceeds the
+     * chunk, has a type not declared in the chunk's metadata, or if the metadata
+     * event isn't met at its offset, as any of that means the headers have been
+     * misread.
+     */
+    private static List<Entry> walk(Input input, JfrChunk chunk) throws IOException {
+        Map<Long, String> typeNames = readTypeNames(input, chunk);
+        Map<Long, Entry> chunkEntries = new HashMap<>();
+        long position = chunk.getEventsOffset();
+        long end = chunk.getOffset() + chunk.getSize();
+        boolean metadataFound = false;
+
+        while (position < end) {
+            input.position(position);
+
+            long size = input.readLong();
+            if (size <= 0 || size > end - position) {
+                throw new IOException("Invalid event size " + size + " at offset " + position);
+            }
+
+            long typeId = input.readLong();
+            if (typeId == METADATA_TYPE_ID) {
+                metadataFound |= position == chunk.getMetadataOffset();
+            }
+            else if (typeId != CHECKPOINT_TYPE_ID) {
+                String typeName = typeNames.get(typeId);
+                if (typeName == null) {
+                    throw new IOException("Unknown type id " + typeId + " at offset " + position);
+                }
+
+                long startNanos = chunk.toNanos(input.readLong());
+                chunkEntries.computeIfAbsent(typeId, k -> new Entry(chunk.getIndex(), typeName)).add(startNanos);
+            }
+
+            position += size;
+        }
+
+        if (!metadataFound) {
+            throw new IOException("No metadata event at offset " + chunk.getMetadataOffset());
+        }
+
+        return new ArrayList<>(chunkEntries.values());
+    }
+
+    /**
+     * Reads the index persisted in the given file. Returns {@code null} if that
+     * file doesn't exist, can't be read, or is outdated, i.e. the recording file
+     * has been modified after the index was written.
+     */
+    public static @Nullable JfrRecordingIndex read(Path indexFile, Path jfrFile) {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != Files.size(jfrFile)
+                    || in.readLong() != Files.getLastModifiedTime(jfrFile).toMillis()) {
+                return null;
+            }
+
+            int chunkCount = in.readInt();
+            List<JfrChunk> chunks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.add(new JfrChunk(i, in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+
+            int entryCount = in.readInt();
+            List<Entry> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(new Entry(in.readInt(), in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+            }
+
+            int unindexedCount = in.readInt();
+            Set<Integer> unindexedChunks = new TreeSet<>();
+            for (int i = 0; i < unindexedCount; i++) {
+                unindexedChunks.add(in.readInt());
+            }
+
+            return new JfrRecordingIndex(chunks, entries, unindexedChunks);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Persists this index into the given file. The file is written next to its
+     * final location and then moved there, so that concurrent readers never see
+     * an incomplete index.
+     */
+    public void write(Path indexFile, Path jfrFile) throws IOException {
+        Path tempFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(jfrFile));
+                out.writeLong(Files.getLastModifiedTime(jfrFile).toMillis());
+
+                out.writeInt(chunks.size());
+                for (JfrChunk chunk : chunks) {
+                    out.writeLong(chunk.getOffset());
+                    out.writeLong(chunk.getSize());
+                    out.writeLong(chunk.getMetadataOffset());
+                    out.writeLong(chunk.getStartNanos());
+                    out.writeLong(chunk.getDurationNanos());
+                    out.writeLong(chunk.getStartTicks());
+                    out.writeLong(chunk.getTicksPerSecond());
+                }
+
+                List<Entry> entries = getEntries();
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeInt(entry.getChunk());
+                    out.writeUTF(entry.getEventType());
+                    out.writeLong(entry.getCount());
+                    out.writeLong(entry.getMinStartNanos());
+                    out.writeLong(entry.getMaxStartNanos());
+                }
+
+                out.writeInt(unindexedChunks.size());
+                for (int chunk : unindexedChunks) {
+                    out.writeInt(chunk);
+                }
+            }
+
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Returns the ids and names of all the types declared in the given chunk's
+     * metadata.
+     *
+     * @see https://github.com/openjdk/jdk/blob/jdk-17%2B35/src/jdk.jfr/share/classes/jdk/jfr/internal/MetadataReader.java
+     */
+    private static Map<Long, String> readTypeNames(Input input, JfrChunk chunk) throws IOException {
+        input.position(chunk.getMetadataOffset());
+
+        input.readLong(); // size
+        if (input.readLong() != METADATA_TYPE_ID) {
+            throw new IOException("Expected metadata event at offset " + chunk.getMetadataOffset());
+        }
+        input.readLong(); // start time
+        input.readLong(); // duration
+        input.readLong(); // metadata id
+
+        String[] strings = new String[(int) input.readLong()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = input.readString();
+        }
+
+        Map<Long, String> typeNames = new HashMap<>();
+        readTypeNames(input, strings, typeNames);
+        return typeNames;
+    }
+
+    private static void readTypeNames(Input input, String[] strings, Map<Long, String> typeNames) throws IOException {
+        String element = strings[(int) input.readLong()];
+        String name = null;
+        String id = null;
+
+        int attributeCount = (int) input.readLong();
+        for (int i = 0; i < attributeCount; i++) {
+            String key = strings[(int) input.readLong()];
+            String value = strings[(int) input.readLong()];
+
+            if ("name".equals(key)) {
+                name = value;
+            }
+            else if ("id".equals(key)) {
+                id = value;
+            }
+        }
+
+        if ("class".equals(element) && name != null && id != null) {
+            typeNames.put(Long.parseLong(id), name);
+        }
+
+        int childCount = (int) input.readLong();
+        for (int i = 0; i < childCount; i++) {
+            readTypeNames(input, strings, typeNames);
+        }
+    }
+
+    public List<JfrChunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Whether the events of the given chunk have been indexed. Unindexed chunks
+     * have no entries, and must be scanned regardless of any start time range.
+     */
+    public boolean isIndexed(int chunk) {
+        return !unindexedChunks.contains(chunk);
+    }
+
+    public Set<Integer> getUnindexedChunks() {
+        return unindexedChunks;
+    }
+
+    /**
+     * Returns the entries for the given event type, in chunk order.
+     */
+    public List<Entry> getEntries(String eventType) {
+        return entriesByEventType.getOrDefault(eventType, Collections.emptyList());
+    }
+
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        for (List<Entry> entriesOfType : entriesByEventType.values()) {
+            entries.addAll(entriesOfType);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of events of the given type, not including any events
+     * in unindexed chunks.
+     */
+    public long getEventCount(String eventType) {
+        long count = 0;
+
+        for (Entry entry : entriesByEventType.getOrDefault(eventType, Collections.emptyList())) {
+            count += entry.getCount();
+        }
+
+        return count;
+    }
+
+    /**
+     * Statistics for the events of one type within one chunk.
+     */
+    public static class Entry {
+
+        private final int chunk;
+        private final String eventType;
+        private long count;
+        private long minStartNanos = Long.MAX_VALUE;
+        private long maxStartNanos = Long.MIN_VALUE;
+
+        public Entry(int chunk, String eventType, long count, long minStartNanos, long maxStartNanos) {
+            this.chunk = chunk;
+            this.eventType = eventType;
+            this.count = count;
+            this.minStartNanos = minStartNanos;
+            this.maxStartNanos = maxStartNanos;
+        }
+
+        private Entry(int chunk, String eventType) {
+            this.chunk = chunk;
+            this.eventType = eventType;
+        }
+
+        private void add(long startNanos) {
+            count++;
+            minStartNanos = Math.min(minStartNanos, startNanos);
+            maxStartNanos = Math.max(maxStartNanos, startNanos);
+        }
+
+        public int getChunk() {
+            return chunk;
+        }
+
+        public String getEventType() {
+            return eventType;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMinStartNanos() {
+            return minStartNanos;
+        }
+
+        public long getMaxStartNanos() {
+            return maxStartNanos;
+        }
+    }
+
+    /**
+     * Buffered random access to a file, decoding compressed integers the same way
+     * as the JDK's {@code RecordingInput}.
+     */
+    private static class Input implements Closeable {
+
+        private static final int MAX_LONG_SIZE = 9;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long bufferStart;
+
+        Input(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.buffer.limit(0);
+        }
+
+        void position(long position) throws IOException {
+            if (position >= bufferStart && position + MAX_LONG_SIZE <= bufferStart + buffer.limit()) {
+                buffer.position((int) (position - bufferStart));
+            }
+            else {
+                fill(position);
+            }
+        }
+
+        long readLong() throws IOException {
+            if (buffer.remaining() < MAX_LONG_SIZE) {
+                fill(bufferStart + buffer.position());
+            }
+
+            long result = 0;
+            for (int i = 0; i < MAX_LONG_SIZE - 1; i++) {
+                byte b = buffer.get();
+                result += (b & 0x7FL) << (7 * i);
+                if (b >= 0) {
+                    return result;
+                }
+            }
+
+            // the last byte is used completely
+            return result + ((buffer.get() & 0xFFL) << 56);
+        }
+
+        @Nullable
+        String readString() throws IOException {
+            if (!buffer.hasRemaining()) {
+                fill(bufferStart + buffer.position());
+            }
+
+            byte encoding = buffer.get();
+            switch (encoding) {
+                case STRING_ENCODING_NULL:
+                    return null;
+                case STRING_ENCODING_EMPTY_STRING:
+                    return "";
+                case STRING_ENCODING_CHAR_ARRAY:
+                    char[] chars = new char[(int) readLong()];
+                    for (int i = 0; i < chars.length; i++) {
+                        chars[i] = (char) readLong();
+                    }
+                    return new String(chars);
+                case STRING_ENCODING_UTF8_BYTE_ARRAY:
+                    return new String(readBytes((int) readLong()), StandardCharsets.UTF_8);
+                case STRING_ENCODING_LATIN1_BYTE_ARRAY:
+                    return new String(readBytes((int) readLong()), StandardCharsets.ISO_8859_1);
+                default:
+                    throw new IOException("Unsupported string encoding " + encoding);
+            }
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int read = 0;
+
+            while (read < length) {
+                if (!buffer.hasRemaining()) {
+                    fill(bufferStart + buffer.position());
+                    if (!buffer.hasRemaining()) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+
+                int count = Math.min(buffer.remaining(), length - read);
+                buffer.get(bytes, read, count);
+                read += count;
+            }
+
+            return bytes;
+        }
+
+        private void fill(long position) throws IOException {
+            buffer.clear();
+            bufferStart = position;
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
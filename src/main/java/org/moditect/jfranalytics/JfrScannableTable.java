@@ -15,30 +15,55 @@
  */
 package org.moditect.jfranalytics;
 
-import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.calcite.DataContext;
 import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
-import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.ProjectableFilterableTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import jdk.jfr.EventType;
 
-public class JfrScannableTable extends AbstractTable implements ScannableTable {
+public class JfrScannableTable extends AbstractTable implements ProjectableFilterableTable {
 
-    private final Path jfrFile;
+    private static final List<Integer> ALL_COLUMNS = List.of(-1);
+
+    private final JfrRecording recording;
+    private final @Nullable JfrTableCache cache;
     private final EventType eventType;
     private final RelDataType rowType;
     private final AttributeValueConverter[] converters;
+    private final int startTimeColumn;
+    private final Map<List<Integer>, RowMaterializer> materializers = new ConcurrentHashMap<>();
 
-    public JfrScannableTable(Path jfrFile, EventType eventType, RelDataType rowType, AttributeValueConverter[] converters) {
-        this.jfrFile = jfrFile;
+    public JfrScannableTable(JfrRecording recording, @Nullable JfrTableCache cache, EventType eventType, RelDataType rowType,
+                             AttributeValueConverter[] converters) {
+        this.recording = recording;
+        this.cache = cache;
         this.eventType = eventType;
         this.rowType = rowType;
         this.converters = converters;
+
+        RelDataTypeField startTime = rowType.getField("startTime", true, false);
+        this.startTimeColumn = startTime != null ? startTime.getIndex() : -1;
     }
 
     @Override
@@ -46,8 +71,156 @@ public class JfrScannableTable extends AbstractTable implements ScannableTable {
         return rowType;
     }
 
+    /**
+     * Returns the number of events of this table's type as per the recording's
+     * index, if that exists already; building the index requires a pass over the
+     * whole recording, which isn't done for planning a query. No collation is
+     * reported, as events are sorted by their start time only within the
+     * segments flushed by the JVM, but not across a whole chunk.
+     */
+    @Override
+    public Statistic getStatistic() {
+        JfrRecordingIndex index = recording.getIndexIfPresent();
+        return index != null ? Statistics.of(index.getEventCount(eventType.getName()), List.of()) : Statistics.UNKNOWN;
+    }
+
     @Override
-    public Enumerable<@Nullable Object[]> scan(DataContext root) {
-        return new JfrEnumerable(jfrFile, eventType, converters);
+    public Enumerable<@Nullable Object[]> scan(DataContext root, List<RexNode> filters, int @Nullable [] projects) {
+        EventFilter[] eventFilters = pushDownFilters(root, filters);
+
+        if (cache != null) {
+            long estimatedSize = JfrColumnarTable.estimateSize(recording.getIndex().getEventCount(eventType.getName()), rowType);
+            JfrColumnarTable table = cache.get(recording.getFile(), eventType.getName(), estimatedSize, this::load);
+
+            // tables too large for the cache are streamed
+            if (table != null) {
+                return table.scan(projects != null ? projects : IntStream.range(0, converters.length).toArray(), eventFilters);
+            }
+        }
+
+        Long lowerBound = getStartTimeBound(eventFilters, true);
+        Long upperBound = getStartTimeBound(eventFilters, false);
+
+        // the start time column is adjusted by the local TZ offset and truncated to millis, see JfrSchema
+        Instant startTime = lowerBound != null ? Instant.ofEpochMilli(lowerBound - JfrSchema.LOCAL_OFFSET) : null;
+        List<JfrChunk> chunks;
+
+        // the index is only built for scans which can skip chunks by their start time
+        if (lowerBound == null && upperBound == null && recording.getIndexIfPresent() == null) {
+            chunks = recording.getChunks();
+        }
+        else {
+            chunks = recording.getChunks(
+                    eventType.getName(),
+                    lowerBound != null ? (lowerBound - JfrSchema.LOCAL_OFFSET) * 1_000_000L : Long.MIN_VALUE,
+                    upperBound != null ? (upperBound - JfrSchema.LOCAL_OFFSET + 1) * 1_000_000L : Long.MAX_VALUE);
+        }
+
+        return new JfrEnumerable(recording, eventType, chunks, getMaterializer(projects), eventFilters, startTime);
+    }
+
+    /**
+     * Decodes all events of this table's type into a columnar table.
+     */
+    private JfrColumnarTable load() {
+        List<JfrChunk> chunks = recording.getChunks(eventType.getName(), Long.MIN_VALUE, Long.MAX_VALUE);
+        return JfrColumnarTable.of(new JfrEnumerator(recording, eventType, chunks, getMaterializer(null), new EventFilter[0], null), converters.length);
+    }
+
+    /**
+     * Returns the lower or upper bound for the start time column of matching
+     * events as per the given filters, if any. Only chunks containing events
+     * within these bounds will be read.
+     */
+    private @Nullable Long getStartTimeBound(EventFilter[] eventFilters, boolean lower) {
+        Long bound = null;
+
+        for (EventFilter eventFilter : eventFilters) {
+            if (eventFilter.getColumn() != startTimeColumn) {
+                continue;
+            }
+
+            switch (eventFilter.getKind()) {
+                case EQUALS:
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUAL:
+                    if (!lower) {
+                        continue;
+                    }
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUAL:
+                    if (lower) {
+                        continue;
+                    }
+                    break;
+                default:
+                    continue;
+            }
+
+            long value = (Long) eventFilter.getValue();
+            bound = bound == null ? value : lower ? Math.max(bound, value) : Math.min(bound, value);
+        }
+
+        return bound;
+    }
+
+    /**
+     * Returns event filters for all those conjuncts of the given filters which can
+     * be evaluated against the recorded events directly. Filters which are
+     * translated completely are removed from the given list, all others are left
+     * for Calcite to evaluate.
+     */
+    private EventFilter[] pushDownFilters(DataContext root, List<RexNode> filters) {
+        RexBuilder rexBuilder = new RexBuilder(root.getTypeFactory());
+        List<EventFilter> eventFilters = new ArrayList<>();
+
+        for (Iterator<RexNode> it = filters.iterator(); it.hasNext();) {
+            boolean translatedCompletely = true;
+
+            for (RexNode conjunct : RelOptUtil.conjunctions(RexUtil.expandSearch(rexBuilder, null, it.next()))) {
+                EventFilter eventFilter = EventFilter.of(conjunct, rowType, converters, root);
+
+                if (eventFilter != null) {
+                    eventFilters.add(eventFilter);
+                }
+                else {
+                    translatedCompletely = false;
+                }
+            }
+
+            if (translatedCompletely) {
+                it.remove();
+            }
+        }
+
+        return eventFilters.toArray(new EventFilter[0]);
+    }
+
+    /**
+     * Returns the materializer for the given projected columns, created upon
+     * first use of that projection.
+     */
+    private RowMaterializer getMaterializer(int @Nullable [] projects) {
+        List<Integer> key = projects != null ? Arrays.stream(projects).boxed().collect(Collectors.toList()) : ALL_COLUMNS;
+        return materializers.computeIfAbsent(key, k -> RowMaterializers.of(project(projects)));
+    }
+
+    /**
+     * Returns the converters for the given projected columns, so that only those
+     * attribute values which actually are requested by a query get retrieved.
+     */
+    private AttributeValueConverter[] project(int @Nullable [] projects) {
+        if (projects == null) {
+            return converters;
+        }
+
+        AttributeValueConverter[] projected = new AttributeValueConverter[projects.length];
+        for (int i = 0; i < projects.length; i++) {
+            projected[i] = converters[projects[i]];
+        }
+
+        return projected;
     }
 }
@@ -15,7 +15,6 @@
  */
 package org.moditect.jfranalytics;
 
-import java.io.IOException;
 import java.lang.System.Logger.Level;
 import java.nio.file.Path;
 import java.sql.Timestamp;
@@ -41,67 +40,117 @@ import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.schema.SchemaVersion;
 import org.apache.calcite.schema.Schemas;
 import org.apache.calcite.schema.Table;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import jdk.jfr.EventType;
 import jdk.jfr.Timespan;
+import jdk.jfr.Unsigned;
 import jdk.jfr.ValueDescriptor;
 import jdk.jfr.consumer.*;
-import jdk.jfr.consumer.EventStream;
-import jdk.jfr.consumer.RecordedClassLoader;
-import jdk.jfr.consumer.RecordedStackTrace;
 
 public class JfrSchema implements Schema {
 
     private static final System.Logger LOGGER = System.getLogger(JfrSchema.class.getName());
-    private static final int LOCAL_OFFSET = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+    static final int LOCAL_OFFSET = TimeZone.getDefault().getOffset(System.currentTimeMillis());
 
-    private final Map<String, JfrScannableTable> tableTypes;
+    private final Map<String, Table> tableTypes;
+    private final CollapsedStacksFunction collapsedStacksFunction;
+    private final CallTreeFunction callTreeFunction;
 
     public JfrSchema(Path jfrFile) {
-        this.tableTypes = Collections.unmodifiableMap(getTableTypes(jfrFile));
+        this(new JfrRecording(jfrFile));
     }
 
-    private static Map<String, JfrScannableTable> getTableTypes(Path jfrFile) {
-        try (var es = EventStream.openFile(jfrFile)) {
-            RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
-            Map<String, JfrScannableTable> tableTypes = new HashMap<>();
-
-            es.onMetadata(event -> {
-                for (EventType eventType : event.getEventTypes()) {
-                    if (!tableTypes.containsKey(eventType.getName())) {
-                        RelDataTypeFactory.Builder builder = new RelDataTypeFactory.Builder(typeFactory);
-                        List<AttributeValueConverter> converters = new ArrayList<>();
-
-                        for (ValueDescriptor field : eventType.getFields()) {
-                            RelDataType type = getRelDataType(eventType, field, typeFactory);
-                            if (type == null) {
-                                continue;
-                            }
-
-                            if (type.getSqlTypeName().toString().equals("ROW")) {
-                                builder.add(field.getName(), type).nullable(true);
-                            }
-                            else {
-                                builder.add(field.getName(), type.getSqlTypeName()).nullable(true);
-                            }
-
-                            converters.add(getConverter(field, type));
-                        }
-
-                        tableTypes.put(eventType.getName(),
-                                new JfrScannableTable(jfrFile, eventType, builder.build(), converters.toArray(new AttributeValueConverter[0])));
-                    }
-                }
-            });
+    public JfrSchema(JfrRecording recording) {
+        this(recording, null);
+    }
+
+    /**
+     * @param cache The cache for keeping decoded tables in memory across queries,
+     *        if any; the recording must have been opened with the same cache
+     */
+    public JfrSchema(JfrRecording recording, @Nullable JfrTableCache cache) {
+        if (cache != null && recording.getStackTraceInterner() != cache.getStackTraceInterner(recording.getFile())) {
+            throw new IllegalArgumentException("Recording " + recording.getFile() + " hasn't been opened with the given cache");
+        }
 
-            es.start();
+        this.tableTypes = Collections.unmodifiableMap(getTableTypes(recording, cache));
+        this.collapsedStacksFunction = new CollapsedStacksFunction(tableTypes::get);
+        this.callTreeFunction = new CallTreeFunction(tableTypes::get);
+    }
 
-            return tableTypes;
+    /**
+     * Creates a table for each event type, and the tables with the distinct stack
+     * traces and their frames. Only the metadata of the recording's chunks is read
+     * for that, but not the events themselves.
+     */
+    private static Map<String, Table> getTableTypes(JfrRecording recording, @Nullable JfrTableCache cache) {
+        RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
+        Map<String, Table> tableTypes = new HashMap<>();
+        boolean hasStackTraces = false;
+
+        for (EventType eventType : recording.getEventTypes()) {
+            if (!tableTypes.containsKey(eventType.getName())) {
+                tableTypes.put(eventType.getName(), getTable(recording, cache, eventType, typeFactory));
+                hasStackTraces |= eventType.getField("stackTrace") != null;
+            }
         }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+
+        if (hasStackTraces) {
+            tableTypes.put(JfrStackTracesTable.NAME, new JfrStackTracesTable(recording));
+            tableTypes.put(JfrStackFramesTable.NAME, new JfrStackFramesTable(recording));
         }
+
+        return tableTypes;
+    }
+
+    private static JfrScannableTable getTable(JfrRecording recording, @Nullable JfrTableCache cache, EventType eventType,
+                                              RelDataTypeFactory typeFactory) {
+        RelDataTypeFactory.Builder builder = new RelDataTypeFactory.Builder(typeFactory);
+        List<AttributeValueConverter> converters = new ArrayList<>();
+        AttributeValueConverter stackTraceConverter = null;
+
+        for (ValueDescriptor field : eventType.getFields()) {
+            RelDataType type = getRelDataType(eventType, field, typeFactory);
+            if (type == null) {
+                continue;
+            }
+
+            if (type.getSqlTypeName().toString().equals("ROW")) {
+                builder.add(field.getName(), type).nullable(true);
+            }
+            else {
+                builder.add(field.getName(), type.getSqlTypeName()).nullable(true);
+            }
+
+            AttributeValueConverter converter = getConverter(recording, field, type);
+            if (field.getName().equals("stackTrace")) {
+                stackTraceConverter = converter;
+            }
+            converters.add(converter);
+        }
+
+        // the id of the stack trace, for grouping events by stack trace and joining them with the stack traces table;
+        // derived from the stackTrace column, so that each event's stack trace is interned once
+        if (stackTraceConverter != null) {
+            AttributeValueConverter source = stackTraceConverter;
+            builder.add("stackTraceId", SqlTypeName.BIGINT).nullable(true);
+            converters.add(new AttributeValueConverter.Derived() {
+
+                @Override
+                public AttributeValueConverter getSource() {
+                    return source;
+                }
+
+                @Override
+                public Object derive(Object stackTrace) {
+                    return stackTrace != null ? ((JfrStackTrace) stackTrace).getId() : null;
+                }
+            });
+        }
+
+        return new JfrScannableTable(recording, cache, eventType, builder.build(), converters.toArray(new AttributeValueConverter[0]));
     }
 
     private static RelDataType getRelDataType(EventType eventType, ValueDescriptor field, RelDataTypeFactory typeFactory) {
@@ -152,7 +201,7 @@ public class JfrSchema implements Schema {
                 type = typeFactory.createJavaType(String.class);
                 break;
             case "jdk.types.StackTrace":
-                type = typeFactory.createJavaType(RecordedStackTrace.class);
+                type = typeFactory.createJavaType(JfrStackTrace.class);
                 break;
             default:
                 LOGGER.log(Level.WARNING, "Unknown type of attribute {0}::{1}: {2}", eventType.getName(), field.getName(), field.getTypeName());
@@ -161,64 +210,67 @@ public class JfrSchema implements Schema {
         return type;
     }
 
-    private static AttributeValueConverter getConverter(ValueDescriptor field, RelDataType type) {
+    private static AttributeValueConverter getConverter(JfrRecording recording, ValueDescriptor field, RelDataType type) {
         // 1. common attributes
 
         // timestamps are adjusted by Calcite using local TZ offset; account for that
         if (field.getName().equals("startTime")) {
-            return event -> event.getStartTime().toEpochMilli() + LOCAL_OFFSET;
+            return (AttributeValueConverter.OfLong) event -> event.getStartTime().toEpochMilli() + LOCAL_OFFSET;
         }
         else if (field.getName().equals("duration")) {
-            return event -> event.getDuration().toNanos();
+            return (AttributeValueConverter.OfLong) event -> event.getDuration().toNanos();
         }
+        // stack traces are converted into their compact form, shared by all events with the same stack trace
         else if (field.getName().equals("stackTrace")) {
-            return event -> event.getStackTrace();
+            StackTraceInterner interner = recording.getStackTraceInterner();
+            FieldAccessor accessor = new FieldAccessor(field.getName());
+            return event -> interner.intern(accessor.get(event));
         }
 
         // 2. special value types
         else if (field.getTypeName().equals("java.lang.Class")) {
-            return event -> event.getClass(field.getName());
+            FieldAccessor accessor = new FieldAccessor(field.getName());
+            return event -> accessor.get(event);
         }
         else if (field.getTypeName().equals("jdk.types.ClassLoader")) {
-            return event -> {
-                RecordedClassLoader recordedClassLoader = (RecordedClassLoader) event.getValue(field.getName());
-
-                if (recordedClassLoader == null) {
-                    return null;
-                }
-                else if (recordedClassLoader.getName() != null) {
-                    return recordedClassLoader.getName();
-                }
-                else {
-                    RecordedClass classLoaderType = recordedClassLoader.getType();
-                    return classLoaderType != null ? classLoaderType.getName() : null;
-                }
-            };
+            return new RecordedClassLoaderConverter(field.getName());
         }
         else if (field.getTypeName().equals("java.lang.Thread")) {
-            return event -> {
-                RecordedThread recordedThread = (RecordedThread) event.getValue(field.getName());
-                return new Object[]{
-                        recordedThread.getOSName(),
-                        recordedThread.getOSThreadId(),
-                        recordedThread.getJavaName(),
-                        recordedThread.getJavaThreadId(),
-                        recordedThread.getThreadGroup() != null ? recordedThread.getThreadGroup().getName() : null,
-                };
-            };
+            return new RecordedThreadConverter(field.getName());
         }
         // 3. further special cases
         else if (field.getAnnotation(Timespan.class) != null) {
-            return event -> {
+            return (AttributeValueConverter.OfLong) event -> {
                 Duration duration = event.getDuration(field.getName());
                 // Long.MIN_VALUE is used as a sentinel value for absent values e.g. for jdk.GCConfiguration.pauseTarget
                 // TODO: handle nanos value overflow
                 return duration.getSeconds() == Long.MIN_VALUE ? Long.MIN_VALUE : duration.toNanos();
             };
         }
-        // 4. default pass-through
+        // 4. primitive values, passed through as boxed by the JFR parser, and retrieved as primitives by filters;
+        // unsigned values are passed through as-is, as the primitive accessors would widen them
+        else if (field.getAnnotation(Unsigned.class) == null && field.getTypeName().equals("long")) {
+            return new FieldAccessor(field.getName()).toLongConverter();
+        }
+        else if (field.getAnnotation(Unsigned.class) == null && field.getTypeName().equals("int")) {
+            return new FieldAccessor(field.getName()).toIntConverter();
+        }
+        else if (field.getTypeName().equals("double")) {
+            return new FieldAccessor(field.getName()).toDoubleConverter();
+        }
+        else if (field.getTypeName().equals("boolean")) {
+            return new FieldAccessor(field.getName()).toBooleanConverter();
+        }
+        // values of string attributes are usually repeated by many events
+        else if (field.getTypeName().equals("java.lang.String")) {
+            StringDictionary dictionary = new StringDictionary();
+            FieldAccessor accessor = new FieldAccessor(field.getName());
+            return event -> dictionary.intern(accessor.get(event));
+        }
+        // 5. default pass-through
         else {
-            return event -> event.getValue(field.getName());
+            FieldAccessor accessor = new FieldAccessor(field.getName());
+            return event -> accessor.get(event);
         }
     }
 
@@ -253,13 +305,32 @@ public class JfrSchema implements Schema {
         else if (name.equals("HAS_MATCHING_FRAME")) {
             return Collections.singleton(HasMatchingFrameFunction.INSTANCE);
         }
+        else if (name.equals("HAS_ANY_MATCHING_FRAME")) {
+            return Collections.singleton(HasAnyMatchingFrameFunction.INSTANCE);
+        }
+        else if (name.equals("STACKTRACE_HASH")) {
+            return Collections.singleton(StackTraceHashFunction.INSTANCE);
+        }
+        else if (name.equals("REPRESENTATIVE_STACKTRACE")) {
+            return Collections.singleton(RepresentativeStackTraceFunction.INSTANCE);
+        }
+        else if (name.equals("COLLAPSED_STACKS")) {
+            return Collections.singleton(collapsedStacksFunction);
+        }
+        else if (name.equals("CALL_TREE")) {
+            return Collections.singleton(callTreeFunction);
+        }
+        else if (name.equals("FRAMES")) {
+            return Collections.singleton(FramesFunction.INSTANCE);
+        }
 
         return Collections.emptySet();
     }
 
     @Override
     public Set<String> getFunctionNames() {
-        return Set.of("CLASS_NAME", "TRUNCATE_STACKTRACE", "HAS_MATCHING_FRAME");
+        return Set.of("CLASS_NAME", "TRUNCATE_STACKTRACE", "HAS_MATCHING_FRAME", "HAS_ANY_MATCHING_FRAME", "STACKTRACE_HASH",
+                "REPRESENTATIVE_STACKTRACE", "COLLAPSED_STACKS", "CALL_TREE", "FRAMES");
     }
 
     @Override
@@ -62,7 +62,25 @@ public class JfrSchemaFactory implements SchemaFactory {
             throw new IllegalArgumentException("Given JFR file doesn't exist: " + jfrFile);
         }
 
-        return new JfrSchema(jfrFile);
+        Object parallelism = operand.get("parallelism");
+        Object ordered = operand.get("ordered");
+        Object index = operand.get("index");
+        Object cacheSize = operand.get("cacheSize");
+
+        JfrTableCache cache = null;
+        if (cacheSize != null && Long.parseLong(cacheSize.toString()) > 0) {
+            cache = JfrTableCache.getInstance();
+            cache.ensureMaxSize(Long.parseLong(cacheSize.toString()) * 1024 * 1024);
+        }
+
+        JfrRecording recording = new JfrRecording(
+                jfrFile,
+                parallelism != null ? Integer.parseInt(parallelism.toString()) : Runtime.getRuntime().availableProcessors(),
+                ordered != null ? Boolean.parseBoolean(ordered.toString()) : true,
+                index != null ? Boolean.parseBoolean(index.toString()) : false,
+                cache);
+
+        return new JfrSchema(recording, cache);
     }
 
 }
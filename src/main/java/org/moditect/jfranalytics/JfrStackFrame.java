@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Objects;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+
+/**
+ * One frame of a {@link JfrStackTrace}. Frames are interned per recording,
+ * i.e. all the stack traces containing a given frame share one instance.
+ */
+public class JfrStackFrame {
+
+    private final String className;
+    private final String methodName;
+    private final String descriptor;
+    private final int lineNumber;
+    private final String type;
+    private final boolean javaFrame;
+    private final boolean hidden;
+    private final int hashCode;
+
+    public JfrStackFrame(String className, String methodName, String descriptor, int lineNumber, String type, boolean javaFrame, boolean hidden) {
+        this.className = className;
+        this.methodName = methodName;
+        this.descriptor = descriptor;
+        this.lineNumber = lineNumber;
+        this.type = type;
+        this.javaFrame = javaFrame;
+        this.hidden = hidden;
+        this.hashCode = Objects.hash(className, methodName, descriptor, lineNumber, type, javaFrame, hidden);
+    }
+
+    public static JfrStackFrame of(RecordedFrame frame) {
+        RecordedMethod method = frame.getMethod();
+
+        return new JfrStackFrame(
+                method.getType() != null ? method.getType().getName() : null,
+                method.getName(),
+                method.getDescriptor(),
+                frame.getLineNumber(),
+                frame.getType(),
+                frame.isJavaFrame(),
+                method.isHidden());
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isJavaFrame() {
+        return javaFrame;
+    }
+
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof JfrStackFrame)) {
+            return false;
+        }
+
+        JfrStackFrame other = (JfrStackFrame) obj;
+        return hashCode == other.hashCode && lineNumber == other.lineNumber && javaFrame == other.javaFrame && hidden == other.hidden
+                && Objects.equals(className, other.className)
+                && Objects.equals(methodName, other.methodName) && Objects.equals(descriptor, other.descriptor) && Objects.equals(type, other.type);
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + methodName + descriptor + ":" + lineNumber;
+    }
+}
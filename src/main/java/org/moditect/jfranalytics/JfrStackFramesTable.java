@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.stream.IntStream;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The frames of the distinct stack traces of a recording, one row per frame,
+ * with a depth of 0 for the top-most frame of each stack trace.
+ */
+public class JfrStackFramesTable extends AbstractTable implements ScannableTable {
+
+    public static final String NAME = "jfr.StackFrames";
+
+    private final JfrRecording recording;
+
+    public JfrStackFramesTable(JfrRecording recording) {
+        this.recording = recording;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+                .add("stackTraceId", SqlTypeName.BIGINT)
+                .add("depth", SqlTypeName.INTEGER)
+                .add("className", SqlTypeName.VARCHAR).nullable(true)
+                .add("methodName", SqlTypeName.VARCHAR).nullable(true)
+                .add("descriptor", SqlTypeName.VARCHAR).nullable(true)
+                .add("lineNumber", SqlTypeName.INTEGER)
+                .add("frameType", SqlTypeName.VARCHAR).nullable(true)
+                .build();
+    }
+
+    @Override
+    public Enumerable<@Nullable Object[]> scan(DataContext root) {
+        return Linq4j.asEnumerable(() -> recording.getStackTraces().getStackTraces().stream()
+                .flatMap(stackTrace -> IntStream.range(0, stackTrace.getFrameCount()).mapToObj(depth -> toRow(stackTrace, depth)))
+                .iterator());
+    }
+
+    private static Object[] toRow(JfrStackTrace stackTrace, int depth) {
+        JfrStackFrame frame = stackTrace.getFrame(depth);
+
+        return new Object[]{
+                stackTrace.getId(),
+                depth,
+                frame.getClassName(),
+                frame.getMethodName(),
+                frame.getDescriptor(),
+                frame.getLineNumber(),
+                frame.getType()
+        };
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A compact representation of a stack trace, referring to frames shared with
+ * all the other stack traces of a recording. Stack traces are interned per
+ * recording (see {@link StackTraceInterner}), so that the memory needed for
+ * holding them grows with the number of distinct stack traces rather than with
+ * the number of events.
+ */
+public class JfrStackTrace {
+
+    private final long id;
+    private final boolean truncated;
+    private final JfrStackFrame[] frames;
+    private final @Nullable StackTraceRenderer renderer;
+
+    JfrStackTrace(long id, boolean truncated, JfrStackFrame[] frames) {
+        this(id, truncated, frames, null);
+    }
+
+    JfrStackTrace(long id, boolean truncated, JfrStackFrame[] frames, @Nullable StackTraceRenderer renderer) {
+        this.id = id;
+        this.truncated = truncated;
+        this.frames = frames;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Returns the id of this stack trace, which is unique within its recording,
+     * see {@link StackTraces}.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public JfrStackFrame getFrame(int depth) {
+        return frames[depth];
+    }
+
+    /**
+     * Returns the text of the frame at the given depth, cached by the renderer of
+     * this stack trace's recording, if any; see {@link FrameHelper#asText(JfrStackFrame)}.
+     */
+    String getFrameText(int depth) {
+        return renderer != null ? renderer.getText(frames[depth]) : FrameHelper.asText(frames[depth]);
+    }
+
+    /**
+     * Returns the text of the first {@code depth} frames of this stack trace, one
+     * line per frame, cached by the renderer of this stack trace's recording, if
+     * any.
+     */
+    String truncate(int depth) {
+        return renderer != null ? renderer.truncate(this, depth) : StackTraceRenderer.render(this, depth);
+    }
+
+    /**
+     * Returns the hash of the first {@code depth} frames of this stack trace, see
+     * {@link StackTraces}. The hash only depends on these frames' methods and line
+     * numbers, i.e. it is the same for stack traces which only differ in the
+     * types of their frames, and it doesn't depend on the order in which stack
+     * traces have been interned, unlike the {@link #getId() id}.
+     */
+    public long getHash(int depth) {
+        return StackTraces.hash(frames, Math.min(depth, frames.length));
+    }
+
+    public List<JfrStackFrame> getFrames() {
+        return Collections.unmodifiableList(Arrays.asList(frames));
+    }
+
+    @Override
+    public String toString() {
+        return "JfrStackTrace [id=" + id + ", frames=" + frames.length + "]";
+    }
+}
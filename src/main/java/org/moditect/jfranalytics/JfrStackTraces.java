@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * The distinct stack traces of all events of a recording, keyed by their id
+ * (see {@link StackTraces}), in the order of their first occurrence.
+ */
+public class JfrStackTraces {
+
+    private final Map<Long, JfrStackTrace> stackTraces;
+
+    private JfrStackTraces(Map<Long, JfrStackTrace> stackTraces) {
+        this.stackTraces = Collections.unmodifiableMap(stackTraces);
+    }
+
+    /**
+     * Collects the stack traces of the given recording in one pass over all its
+     * events.
+     */
+    static JfrStackTraces read(Path jfrFile, StackTraceInterner interner) throws IOException {
+        Map<Long, JfrStackTrace> stackTraces = new LinkedHashMap<>();
+
+        try (RecordingFile recordingFile = new RecordingFile(jfrFile)) {
+            while (recordingFile.hasMoreEvents()) {
+                RecordedEvent event = recordingFile.readEvent();
+                JfrStackTrace stackTrace = interner.intern(event.getStackTrace());
+
+                if (stackTrace != null) {
+                    stackTraces.putIfAbsent(stackTrace.getId(), stackTrace);
+                }
+            }
+        }
+
+        return new JfrStackTraces(stackTraces);
+    }
+
+    public JfrStackTrace get(long id) {
+        return stackTraces.get(id);
+    }
+
+    public Collection<JfrStackTrace> getStackTraces() {
+        return stackTraces.values();
+    }
+
+    public int size() {
+        return stackTraces.size();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The distinct stack traces of a recording, one row per stack trace. Can be
+ * joined with the event tables via their {@code stackTraceId} column.
+ */
+public class JfrStackTracesTable extends AbstractTable implements ScannableTable {
+
+    public static final String NAME = "jfr.StackTraces";
+
+    private final JfrRecording recording;
+
+    public JfrStackTracesTable(JfrRecording recording) {
+        this.recording = recording;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+                .add("stackTraceId", SqlTypeName.BIGINT)
+                .add("truncated", SqlTypeName.BOOLEAN)
+                .add("frameCount", SqlTypeName.INTEGER)
+                .add("stackTrace", typeFactory.createJavaType(JfrStackTrace.class).getSqlTypeName())
+                .build();
+    }
+
+    @Override
+    public Enumerable<@Nullable Object[]> scan(DataContext root) {
+        return Linq4j.asEnumerable(recording.getStackTraces().getStackTraces())
+                .select(stackTrace -> new Object[]{
+                        stackTrace.getId(),
+                        stackTrace.isTruncated(),
+                        stackTrace.getFrameCount(),
+                        stackTrace
+                });
+    }
+}
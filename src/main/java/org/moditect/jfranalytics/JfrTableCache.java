@@ -0,0 +1,265 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A cache of decoded event tables, bounded by the estimated size of the cached
+ * tables. When adding a table would exceed that bound, the least recently used
+ * tables are evicted. Tables larger than the bound aren't cached at all; tables
+ * which are known or estimated to be larger than the bound aren't even loaded,
+ * so that queries against them can stream the recording instead.
+ * <p>
+ * The {@link #getInstance() shared instance} is used by all schemas of the
+ * process, so that connections opening the same recording file share its
+ * tables. Entries are keyed by file path, size and modification time, i.e. a
+ * recording file which has been changed is decoded again. As the shared
+ * instance is used by all connections, a connection can only raise its maximum
+ * size (see {@link #ensureMaxSize(long)}), i.e. it's the largest size requested
+ * by any connection.
+ * <p>
+ * Cached tables hold the stack traces of the recording they were decoded from.
+ * So that their stack trace ids match those of the {@code jfr.StackTraces}
+ * table of any connection, all recordings of a file opened with a cache share
+ * one {@link StackTraceInterner} (see {@link #getStackTraceInterner(Path)}),
+ * which is retained as long as any such recording or cached table of that
+ * file is.
+ */
+public class JfrTableCache {
+
+    private static final JfrTableCache INSTANCE = new JfrTableCache(0);
+
+    private final LinkedHashMap<Key, Entry> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<JfrColumnarTable>> loading = new HashMap<>();
+    private final Map<Key, Long> oversized = new HashMap<>();
+    private final Map<Key, WeakReference<StackTraceInterner>> interners = new HashMap<>();
+    private long maxSize;
+    private long size;
+
+    public JfrTableCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static JfrTableCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum size of this cache in bytes, evicting tables as needed.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+    /**
+     * Raises the maximum size of this cache in bytes to the given value, unless
+     * it's larger already. Unlike {@link #setMaxSize(long)}, this never evicts any
+     * tables.
+     */
+    public synchronized void ensureMaxSize(long maxSize) {
+        if (maxSize > this.maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the interner for the stack traces of the given recording file,
+     * shared by all recordings of that file using this cache.
+     */
+    synchronized StackTraceInterner getStackTraceInterner(Path file) {
+        interners.values().removeIf(reference -> reference.get() == null);
+
+        Key key = Key.of(file, null);
+        WeakReference<StackTraceInterner> reference = interners.get(key);
+        StackTraceInterner interner = reference != null ? reference.get() : null;
+
+        if (interner == null) {
+            interner = new StackTraceInterner();
+            interners.put(key, new WeakReference<>(interner));
+        }
+
+        return interner;
+    }
+
+    public synchronized boolean contains(Path file, String eventType) {
+        return tables.containsKey(Key.of(file, eventType));
+    }
+
+    /**
+     * Returns the table for the given event type of the given recording file,
+     * loading it via the given loader if it isn't cached yet. Concurrent
+     * requests for the same table await the first one's loading. Returns
+     * {@code null} without loading the table if it can't be cached, as per the
+     * given estimated size, or the actual size of an earlier load.
+     */
+    public @Nullable JfrColumnarTable get(Path file, String eventType, long estimatedSize, Supplier<JfrColumnarTable> loader) {
+        Key key = Key.of(file, eventType);
+        CompletableFuture<JfrColumnarTable> future;
+        boolean load = false;
+
+        synchronized (this) {
+            Entry entry = tables.get(key);
+            if (entry != null) {
+                return entry.table;
+            }
+
+            if (Math.max(estimatedSize, oversized.getOrDefault(key, 0L)) > maxSize) {
+                return null;
+            }
+
+            future = loading.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+                load = true;
+            }
+        }
+
+        if (load) {
+            try {
+                JfrColumnarTable table = loader.get();
+                put(key, table);
+                future.complete(table);
+                return table;
+            }
+            catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+            finally {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+            }
+        }
+
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private synchronized void put(Key key, JfrColumnarTable table) {
+        if (table.getSize() > maxSize) {
+            oversized.put(key, table.getSize());
+            return;
+        }
+
+        evict(table.getSize());
+
+        WeakReference<StackTraceInterner> interner = interners.get(key.getFileKey());
+        tables.put(key, new Entry(table, interner != null ? interner.get() : null));
+        size += table.getSize();
+    }
+
+    /**
+     * Evicts the least recently used tables until the given number of bytes is
+     * available.
+     */
+    private void evict(long required) {
+        for (Iterator<Entry> it = tables.values().iterator(); it.hasNext() && size + required > maxSize;) {
+            size -= it.next().table.getSize();
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+
+        private final JfrColumnarTable table;
+        // retains the interner of the table's stack traces for other connections
+        private final @Nullable StackTraceInterner interner;
+
+        private Entry(JfrColumnarTable table, @Nullable StackTraceInterner interner) {
+            this.table = table;
+            this.interner = interner;
+        }
+    }
+
+    /**
+     * Identifies the table of an event type within a recording file, or the file
+     * itself if no event type is given.
+     */
+    private static class Key {
+
+        private final Path file;
+        private final long fileSize;
+        private final long lastModified;
+        private final @Nullable String eventType;
+
+        private Key(Path file, long fileSize, long lastModified, @Nullable String eventType) {
+            this.file = file;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.eventType = eventType;
+        }
+
+        static Key of(Path file, @Nullable String eventType) {
+            try {
+                Path realPath = file.toRealPath();
+                return new Key(realPath, Files.size(realPath), Files.getLastModifiedTime(realPath).toMillis(), eventType);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't access JFR file " + file, e);
+            }
+        }
+
+        Key getFileKey() {
+            return new Key(file, fileSize, lastModified, null);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, fileSize, lastModified, eventType);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return file.equals(other.file) && fileSize == other.fileSize && lastModified == other.lastModified && Objects.equals(eventType, other.eventType);
+        }
+    }
+}
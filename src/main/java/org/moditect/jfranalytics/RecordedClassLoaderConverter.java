@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedClassLoader;
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Converts {@code jdk.types.ClassLoader} attributes into the class loader's
+ * name, or the name of its type for unnamed class loaders. Names are resolved
+ * once per class loader and cached, using the same approach as
+ * {@link RecordedThreadConverter}, i.e. cached by id, but only reused for the
+ * very same {@link RecordedClassLoader} instance.
+ */
+class RecordedClassLoaderConverter implements AttributeValueConverter {
+
+    private final FieldAccessor field;
+    private final Map<Long, Entry> names = new ConcurrentHashMap<>();
+
+    RecordedClassLoaderConverter(String field) {
+        this.field = new FieldAccessor(field);
+    }
+
+    @Override
+    public Object getValue(RecordedEvent event) {
+        RecordedClassLoader recordedClassLoader = field.get(event);
+
+        if (recordedClassLoader == null) {
+            return null;
+        }
+
+        Entry entry = names.get(recordedClassLoader.getId());
+
+        if (entry == null || entry.classLoader != recordedClassLoader) {
+            entry = new Entry(recordedClassLoader, getName(recordedClassLoader));
+            names.put(recordedClassLoader.getId(), entry);
+        }
+
+        return entry.name;
+    }
+
+    private static String getName(RecordedClassLoader recordedClassLoader) {
+        if (recordedClassLoader.getName() != null) {
+            return recordedClassLoader.getName();
+        }
+        else {
+            RecordedClass classLoaderType = recordedClassLoader.getType();
+            return classLoaderType != null ? classLoaderType.getName() : null;
+        }
+    }
+
+    private static class Entry {
+
+        private final RecordedClassLoader classLoader;
+        private final String name;
+
+        private Entry(RecordedClassLoader classLoader, String name) {
+            this.classLoader = classLoader;
+            this.name = name;
+        }
+    }
+}
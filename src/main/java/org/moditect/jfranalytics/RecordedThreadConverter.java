@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+
+/**
+ * Converts {@code java.lang.Thread} attributes into {@code RecordedThread}
+ * structs. A recording typically has a few hundred threads only, so each
+ * thread's struct is created once and then shared by all the rows referring to
+ * that thread.
+ * <p>
+ * The JFR parser resolves each thread into one {@link RecordedThread} instance
+ * per chunk. Structs are cached by thread id, but only reused for the very same
+ * instance, so that threads of different chunks, potentially written by
+ * different JVMs using the same ids, are never mixed up.
+ */
+class RecordedThreadConverter implements AttributeValueConverter {
+
+    private final FieldAccessor field;
+    private final Map<Long, Entry> structs = new ConcurrentHashMap<>();
+
+    RecordedThreadConverter(String field) {
+        this.field = new FieldAccessor(field);
+    }
+
+    @Override
+    public Object getValue(RecordedEvent event) {
+        RecordedThread recordedThread = field.get(event);
+
+        if (recordedThread == null) {
+            return null;
+        }
+
+        Entry entry = structs.get(recordedThread.getId());
+
+        if (entry == null || entry.thread != recordedThread) {
+            entry = new Entry(recordedThread, toStruct(recordedThread));
+            structs.put(recordedThread.getId(), entry);
+        }
+
+        return entry.struct;
+    }
+
+    private static Object[] toStruct(RecordedThread recordedThread) {
+        return new Object[]{
+                recordedThread.getOSName(),
+                recordedThread.getOSThreadId(),
+                recordedThread.getJavaName(),
+                recordedThread.getJavaThreadId(),
+                recordedThread.getThreadGroup() != null ? recordedThread.getThreadGroup().getName() : null,
+        };
+    }
+
+    private static class Entry {
+
+        private final RecordedThread thread;
+        private final Object[] struct;
+
+        private Entry(RecordedThread thread, Object[] struct) {
+            this.thread = thread;
+            this.struct = struct;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import org.apache.calcite.schema.AggregateFunction;
+import org.apache.calcite.schema.impl.AggregateFunctionImpl;
+
+/**
+ * Aggregate function which renders one of the stack traces of a group,
+ * truncated to the given depth, e.g. for the groups of
+ * {@link StackTraceHashFunction}:
+ * {@code SELECT STACKTRACE_HASH("stackTrace", 10), REPRESENTATIVE_STACKTRACE("stackTrace", 10) ... GROUP BY STACKTRACE_HASH("stackTrace", 10)}.
+ * Only the first non-null stack trace of each group is retained and it is
+ * rendered once per group, see {@link TruncateStackTraceFunction}.
+ */
+public class RepresentativeStackTraceFunction {
+
+    public static final AggregateFunction INSTANCE = AggregateFunctionImpl.create(RepresentativeStackTraceFunction.class);
+
+    public Accumulator init() {
+        return new Accumulator();
+    }
+
+    public Accumulator add(Accumulator accumulator, Object stackTrace, int depth) {
+        if (stackTrace != null && accumulator.stackTrace == null) {
+            if (!(stackTrace instanceof JfrStackTrace)) {
+                throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
+            }
+            if (depth < 1) {
+                throw new IllegalArgumentException("At least one frame must be retained");
+            }
+
+            accumulator.stackTrace = (JfrStackTrace) stackTrace;
+            accumulator.depth = depth;
+        }
+
+        return accumulator;
+    }
+
+    public Accumulator merge(Accumulator accumulator1, Accumulator accumulator2) {
+        return accumulator1.stackTrace != null ? accumulator1 : accumulator2;
+    }
+
+    public String result(Accumulator accumulator) {
+        return accumulator.stackTrace != null ? accumulator.stackTrace.truncate(accumulator.depth) : null;
+    }
+
+    public static class Accumulator {
+
+        private JfrStackTrace stackTrace;
+        private int depth;
+    }
+}
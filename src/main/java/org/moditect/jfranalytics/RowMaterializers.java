@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.lang.System.Logger.Level;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.janino.SimpleCompiler;
+
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Creates {@link RowMaterializer}s. For each set of converters, a class is
+ * generated which invokes each converter from a separate call site within one
+ * straight-line method. Unlike a loop over all the converters, where one call
+ * site sees all the different converter types, this allows the JIT compiler to
+ * inline the converters. Classes are compiled using Janino, just like the code
+ * generated by Calcite itself.
+ * <p>
+ * {@link AttributeValueConverter.Derived Derived} converters whose source
+ * converter is part of the same row are passed the source's value, after all
+ * other values of the row have been retrieved.
+ */
+class RowMaterializers {
+
+    private static final System.Logger LOGGER = System.getLogger(RowMaterializers.class.getName());
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final Object[] EMPTY_ROW = new Object[0];
+
+    // e.g. COUNT(*), no need to allocate a new row for each event
+    private static final RowMaterializer EMPTY = event -> EMPTY_ROW;
+
+    private RowMaterializers() {
+    }
+
+    static RowMaterializer of(AttributeValueConverter[] converters) {
+        if (converters.length == 0) {
+            return EMPTY;
+        }
+
+        try {
+            return generate(converters);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Couldn't generate row materializer, falling back to generic one", e);
+            return new Generic(converters);
+        }
+    }
+
+    private static RowMaterializer generate(AttributeValueConverter[] converters) throws Exception {
+        String className = "GeneratedRowMaterializer" + COUNTER.incrementAndGet();
+        String converterType = AttributeValueConverter.class.getCanonicalName();
+        String derivedType = AttributeValueConverter.Derived.class.getCanonicalName();
+        int[] sources = getSources(converters);
+
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(className).append(" implements ").append(RowMaterializer.class.getCanonicalName()).append(" {\n");
+
+        for (int i = 0; i < converters.length; i++) {
+            source.append("  private final ").append(sources[i] >= 0 ? derivedType : converterType).append(" c").append(i).append(";\n");
+        }
+
+        source.append("  public ").append(className).append("(").append(converterType).append("[] converters) {\n");
+        for (int i = 0; i < converters.length; i++) {
+            source.append("    this.c").append(i).append(" = ");
+            if (sources[i] >= 0) {
+                source.append("(").append(derivedType).append(") ");
+            }
+            source.append("converters[").append(i).append("];\n");
+        }
+        source.append("  }\n");
+
+        source.append("  public Object[] toRow(").append(RecordedEvent.class.getCanonicalName()).append(" event) {\n");
+        source.append("    Object[] row = new Object[").append(converters.length).append("];\n");
+        for (int i = 0; i < converters.length; i++) {
+            if (sources[i] < 0) {
+                source.append("    row[").append(i).append("] = c").append(i).append(".getValue(event);\n");
+            }
+        }
+        for (int i = 0; i < converters.length; i++) {
+            if (sources[i] >= 0) {
+                source.append("    row[").append(i).append("] = c").append(i).append(".derive(row[").append(sources[i]).append("]);\n");
+            }
+        }
+        source.append("    return row;\n");
+        source.append("  }\n");
+        source.append("}\n");
+
+        SimpleCompiler compiler = new SimpleCompiler();
+        compiler.setParentClassLoader(RowMaterializers.class.getClassLoader());
+        compiler.cook(source.toString());
+
+        return (RowMaterializer) compiler.getClassLoader()
+                .loadClass(className)
+                .getConstructor(AttributeValueConverter[].class)
+                .newInstance((Object) converters);
+    }
+
+    /**
+     * Returns for each of the given converters the position of its source
+     * converter within the given converters, if it's a derived one and its
+     * source is contained; -1 otherwise.
+     */
+    private static int[] getSources(AttributeValueConverter[] converters) {
+        int[] sources = new int[converters.length];
+
+        for (int i = 0; i < converters.length; i++) {
+            sources[i] = -1;
+
+            if (converters[i] instanceof AttributeValueConverter.Derived) {
+                AttributeValueConverter source = ((AttributeValueConverter.Derived) converters[i]).getSource();
+
+                for (int j = 0; j < converters.length; j++) {
+                    if (converters[j] == source) {
+                        sources[i] = j;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return sources;
+    }
+
+    /**
+     * A materializer looping over the given converters.
+     */
+    static class Generic implements RowMaterializer {
+
+        private final AttributeValueConverter[] converters;
+        private final int[] sources;
+
+        Generic(AttributeValueConverter[] converters) {
+            this.converters = converters;
+            this.sources = getSources(converters);
+        }
+
+        @Override
+        public Object[] toRow(RecordedEvent event) {
+            Object[] row = new Object[converters.length];
+
+            for (int i = 0; i < converters.length; i++) {
+                if (sources[i] < 0) {
+                    row[i] = converters[i].getValue(event);
+                }
+            }
+
+            for (int i = 0; i < converters.length; i++) {
+                if (sources[i] >= 0) {
+                    row[i] = ((AttributeValueConverter.Derived) converters[i]).derive(row[sources[i]]);
+                }
+            }
+
+            return row;
+        }
+    }
+}
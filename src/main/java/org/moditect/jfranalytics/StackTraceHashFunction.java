@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import org.apache.calcite.schema.ScalarFunction;
+import org.apache.calcite.schema.impl.ScalarFunctionImpl;
+
+/**
+ * Returns a 64-bit hash of the first frames of a {@link JfrStackTrace}, based
+ * on the frames' methods and line numbers, see {@link StackTraces}. Grouping
+ * by that hash is much cheaper than grouping by the text of truncated stack
+ * traces; {@link RepresentativeStackTraceFunction} renders a stack trace for
+ * each group.
+ */
+public class StackTraceHashFunction {
+
+    public static final ScalarFunction INSTANCE = ScalarFunctionImpl.create(StackTraceHashFunction.class, "eval");
+
+    public Long eval(Object stackTrace, int depth) {
+        if (stackTrace == null) {
+            return null;
+        }
+        if (!(stackTrace instanceof JfrStackTrace)) {
+            throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("At least one frame must be retained");
+        }
+
+        return ((JfrStackTrace) stackTrace).getHash(depth);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+
+/**
+ * Converts recorded stack traces into their compact representation, sharing
+ * one {@link JfrStackTrace} instance for all occurrences of a given stack trace
+ * within a recording, and one {@link JfrStackFrame} instance for all
+ * occurrences of a given frame. Stack traces are identified by their frames,
+ * i.e. two different stack traces with the same hash (see {@link StackTraces})
+ * are never merged. The id of a stack trace is its hash, unless that id has
+ * already been assigned to another stack trace, in which case the next free id
+ * is used.
+ * <p>
+ * The JFR parser resolves each stack trace into one {@link RecordedStackTrace}
+ * instance per chunk, so each of them needs to be converted only once. Recorded
+ * objects don't override {@code equals()}, i.e. these conversions are cached by
+ * identity; the cache's keys are weakly referenced, so that the recorded stack
+ * traces of chunks which have been read completely can be garbage collected.
+ * As each chunk is read by one thread, there's one such cache per thread,
+ * avoiding contention between concurrent readers.
+ * <p>
+ * The interner also holds the {@link StackTraceRenderer} caching the text of
+ * its stack traces, so that cached texts are released together with the
+ * stack traces they were rendered from.
+ */
+class StackTraceInterner {
+
+    private final ThreadLocal<Map<RecordedStackTrace, JfrStackTrace>> converted = ThreadLocal.withInitial(WeakHashMap::new);
+    private final Map<Key, JfrStackTrace> stackTraces = new ConcurrentHashMap<>();
+    private final Set<Long> ids = ConcurrentHashMap.newKeySet();
+    private final Map<JfrStackFrame, JfrStackFrame> frames = new ConcurrentHashMap<>();
+    private final StackTraceRenderer renderer = new StackTraceRenderer();
+
+    /**
+     * Returns the compact representation of the given stack trace, or
+     * {@code null} if no stack trace is given.
+     */
+    JfrStackTrace intern(RecordedStackTrace recordedStackTrace) {
+        if (recordedStackTrace == null) {
+            return null;
+        }
+
+        Map<RecordedStackTrace, JfrStackTrace> converted = this.converted.get();
+        JfrStackTrace stackTrace = converted.get(recordedStackTrace);
+
+        if (stackTrace == null) {
+            stackTrace = convert(recordedStackTrace);
+            converted.put(recordedStackTrace, stackTrace);
+        }
+
+        return stackTrace;
+    }
+
+    private JfrStackTrace convert(RecordedStackTrace recordedStackTrace) {
+        List<RecordedFrame> recordedFrames = recordedStackTrace.getFrames();
+        JfrStackFrame[] stackFrames = new JfrStackFrame[recordedFrames.size()];
+
+        for (int i = 0; i < stackFrames.length; i++) {
+            stackFrames[i] = JfrStackFrame.of(recordedFrames.get(i));
+        }
+
+        return intern(stackFrames, recordedStackTrace.isTruncated());
+    }
+
+    /**
+     * Returns the shared stack trace with the given frames, replacing the given
+     * frames with their shared instances.
+     */
+    JfrStackTrace intern(JfrStackFrame[] stackFrames, boolean truncated) {
+        for (int i = 0; i < stackFrames.length; i++) {
+            JfrStackFrame existing = frames.putIfAbsent(stackFrames[i], stackFrames[i]);
+            if (existing != null) {
+                stackFrames[i] = existing;
+            }
+        }
+
+        long hash = StackTraces.hash(stackFrames, stackFrames.length);
+        return stackTraces.computeIfAbsent(new Key(hash, truncated, stackFrames), k -> new JfrStackTrace(nextId(hash), truncated, stackFrames, renderer));
+    }
+
+    StackTraceRenderer getRenderer() {
+        return renderer;
+    }
+
+    private long nextId(long hash) {
+        long id = hash;
+
+        while (!ids.add(id)) {
+            id++;
+        }
+
+        return id;
+    }
+
+    /**
+     * Identifies stack traces by their frames; the hash only serves for quickly
+     * telling apart different stack traces.
+     */
+    private static class Key {
+
+        private final long hash;
+        private final boolean truncated;
+        private final JfrStackFrame[] frames;
+
+        private Key(long hash, boolean truncated, JfrStackFrame[] frames) {
+            this.hash = hash;
+            this.truncated = truncated;
+            this.frames = frames;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(hash) + Boolean.hashCode(truncated);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return hash == other.hash && truncated == other.truncated && Arrays.equals(frames, other.frames);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the frames of one recording's stack traces as text. As the same
+ * frames occur in many stack traces, the text of each frame is cached. Frames
+ * are identified by their method and line number only, i.e. frames which only
+ * differ in their type share one text. Truncated stack traces are cached per
+ * stack trace instance and depth, retaining the most recently used ones. The
+ * caches are held by the recording's {@link StackTraceInterner}, so they're
+ * released together with the recording's stack traces, or when closing the
+ * recording.
+ */
+class StackTraceRenderer {
+
+    private static final int MAX_STACK_TRACES = 16_384;
+
+    private final Map<FrameKey, String> frames = new ConcurrentHashMap<>();
+    private final BoundedCache<StackTraceKey, String> stackTraces = new BoundedCache<>(MAX_STACK_TRACES);
+
+    /**
+     * Returns the text of the given frame, or {@code null} for frames which
+     * aren't rendered, see {@link FrameHelper#asText(JfrStackFrame)}.
+     */
+    String getText(JfrStackFrame frame) {
+        if (!frame.isJavaFrame() || frame.isHidden()) {
+            return null;
+        }
+
+        return frames.computeIfAbsent(new FrameKey(frame), k -> FrameHelper.asText(frame));
+    }
+
+    /**
+     * Returns the text of the first {@code depth} frames of the given stack trace,
+     * one line per frame.
+     */
+    String truncate(JfrStackTrace stackTrace, int depth) {
+        return stackTraces.get(new StackTraceKey(stackTrace, depth), key -> render(key.stackTrace, key.depth));
+    }
+
+    static String render(JfrStackTrace stackTrace, int depth) {
+        StringBuilder builder = new StringBuilder();
+
+        int i = 0;
+        while (i < depth && i < stackTrace.getFrameCount()) {
+            builder.append(stackTrace.getFrameText(i));
+            builder.append(System.lineSeparator());
+            i++;
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Releases all cached texts.
+     */
+    void clear() {
+        frames.clear();
+        stackTraces.clear();
+    }
+
+    /**
+     * Identifies frames by their method and line number.
+     */
+    private static class FrameKey {
+
+        private final String className;
+        private final String methodName;
+        private final String descriptor;
+        private final int lineNumber;
+
+        private FrameKey(JfrStackFrame frame) {
+            this.className = frame.getClassName();
+            this.methodName = frame.getMethodName();
+            this.descriptor = frame.getDescriptor();
+            this.lineNumber = frame.getLineNumber();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(className, methodName, descriptor, lineNumber);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FrameKey)) {
+                return false;
+            }
+
+            FrameKey other = (FrameKey) obj;
+            return lineNumber == other.lineNumber && Objects.equals(className, other.className) && Objects.equals(methodName, other.methodName)
+                    && Objects.equals(descriptor, other.descriptor);
+        }
+    }
+
+    /**
+     * Identifies stack traces by identity, as they are interned.
+     */
+    private static class StackTraceKey {
+
+        private final JfrStackTrace stackTrace;
+        private final int depth;
+
+        private StackTraceKey(JfrStackTrace stackTrace, int depth) {
+            this.stackTrace = stackTrace;
+            this.depth = depth;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(stackTrace) + depth;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StackTraceKey)) {
+                return false;
+            }
+
+            StackTraceKey other = (StackTraceKey) obj;
+            return stackTrace == other.stackTrace && depth == other.depth;
+        }
+    }
+}
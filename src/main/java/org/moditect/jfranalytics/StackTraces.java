@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Objects;
+
+/**
+ * Hashes stack traces by their content.
+ * <p>
+ * The ids assigned to stack traces by the JVM are only unique within one chunk
+ * and aren't exposed by the JFR consumer API. Instead, stack traces are hashed
+ * by their frames' methods (declaring type, name, and descriptor) and line
+ * numbers, and that 64-bit hash is used as the id of a stack trace, unless
+ * another stack trace with the same hash has been assigned that id before (see
+ * {@link StackTraceInterner}). That way, ids are unique within a recording, and
+ * usually also stable across recordings.
+ */
+class StackTraces {
+
+    private StackTraces() {
+    }
+
+    /**
+     * Returns the hash of the first {@code depth} of the given frames.
+     */
+    static long hash(JfrStackFrame[] frames, int depth) {
+        int size = Math.min(depth, frames.length);
+        long hash = size;
+
+        for (int i = 0; i < size; i++) {
+            JfrStackFrame frame = frames[i];
+
+            hash = mix(hash, Objects.hashCode(frame.getClassName()));
+            hash = mix(hash, Objects.hashCode(frame.getMethodName()));
+            hash = mix(hash, Objects.hashCode(frame.getDescriptor()));
+            hash = mix(hash, frame.getLineNumber());
+        }
+
+        // final avalanche, as per MurmurHash3's fmix64
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        hash ^= value * 0x9e3779b97f4a7c15L;
+        return Long.rotateLeft(hash, 31) * 0xbf58476d1ce4e5b9L;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A prefix tree of the stack traces of a set of events, with one node per
+ * distinct call path, starting at the stack traces' root frames. Each node
+ * has a self weight (the weight of the events whose stack traces end at that
+ * node) and a total weight (the weight of all the events whose stack traces
+ * pass through that node). Frames are identified by their label, e.g. the
+ * name of their method, i.e. frames for different lines of the same method are
+ * merged.
+ * <p>
+ * Weights are first summed up per distinct stack trace (which are interned,
+ * see {@link StackTraceInterner}), and each distinct stack trace is added to
+ * the tree once.
+ */
+class StackTree {
+
+    private final int maxDepth;
+    private final Function<JfrStackFrame, String> labeler;
+    private final Map<JfrStackTrace, long[]> weights = new IdentityHashMap<>();
+    private final Map<JfrStackFrame, String> labels = new HashMap<>();
+    private final Node root = new Node(null, null);
+
+    /**
+     * @param maxDepth The maximum depth of the tree; frames beyond that depth
+     *        (counted from the stack traces' root frames) are cut off, with their
+     *        weight being accounted to the frame at that depth
+     * @param labeler Renders the label of a frame, e.g.
+     *        {@link FrameHelper#asMethodName(JfrStackFrame)}
+     */
+    StackTree(int maxDepth, Function<JfrStackFrame, String> labeler) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("At least one frame must be retained");
+        }
+
+        this.maxDepth = maxDepth;
+        this.labeler = labeler;
+    }
+
+    void add(JfrStackTrace stackTrace, long weight) {
+        weights.computeIfAbsent(stackTrace, k -> new long[1])[0] += weight;
+    }
+
+    /**
+     * Builds the tree from all the stack traces added so far, returning its root.
+     * The root node doesn't represent any frame, its total weight is the weight
+     * of all events.
+     */
+    Node build() {
+        for (Map.Entry<JfrStackTrace, long[]> entry : weights.entrySet()) {
+            insert(entry.getKey(), entry.getValue()[0]);
+        }
+        weights.clear();
+
+        return root;
+    }
+
+    private void insert(JfrStackTrace stackTrace, long weight) {
+        int frameCount = stackTrace.getFrameCount();
+        int depth = Math.min(maxDepth, frameCount);
+        Node node = root;
+        node.totalWeight += weight;
+
+        for (int i = frameCount - 1; i >= frameCount - depth; i--) {
+            node = node.getChild(getLabel(stackTrace.getFrame(i)));
+            node.totalWeight += weight;
+        }
+
+        node.selfWeight += weight;
+    }
+
+    private String getLabel(JfrStackFrame frame) {
+        return labels.computeIfAbsent(frame, labeler);
+    }
+
+    static class Node {
+
+        private final Node parent;
+        private final String frame;
+        private final Map<String, Node> children = new HashMap<>();
+        private long selfWeight;
+        private long totalWeight;
+
+        private Node(Node parent, String frame) {
+            this.parent = parent;
+            this.frame = frame;
+        }
+
+        private Node getChild(String frame) {
+            return children.computeIfAbsent(frame, f -> new Node(this, f));
+        }
+
+        Node getParent() {
+            return parent;
+        }
+
+        String getFrame() {
+            return frame;
+        }
+
+        List<Node> getChildren() {
+            return new ArrayList<>(children.values());
+        }
+
+        long getSelfWeight() {
+            return selfWeight;
+        }
+
+        long getTotalWeight() {
+            return totalWeight;
+        }
+
+        /**
+         * Passes each node with a self weight, together with its path from the root
+         * (frames separated by semicolons), to the given consumer. The tree is
+         * traversed iteratively, as its depth is only bounded by the depth of the
+         * stack traces.
+         */
+        void collapse(BiConsumer<String, Node> consumer) {
+            StringBuilder path = new StringBuilder();
+            Deque<Pending> pending = new ArrayDeque<>();
+            pending.push(new Pending(this, 0));
+
+            while (!pending.isEmpty()) {
+                Pending next = pending.pop();
+                Node node = next.node;
+
+                // the path is a descendant's path or the parent's path, so it starts with the latter
+                path.setLength(next.parentPathLength);
+
+                if (node.frame != null) {
+                    if (path.length() > 0) {
+                        path.append(';');
+                    }
+                    path.append(node.frame);
+
+                    if (node.selfWeight > 0) {
+                        consumer.accept(path.toString(), node);
+                    }
+                }
+
+                for (Node child : node.children.values()) {
+                    pending.push(new Pending(child, path.length()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A node yet to be visited when collapsing the tree, and the length of its
+     * parent's path.
+     */
+    private static class Pending {
+
+        private final Node node;
+        private final int parentPathLength;
+
+        private Pending(Node node, int parentPathLength) {
+            this.node = node;
+            this.parentPathLength = parentPathLength;
+        }
+    }
+}
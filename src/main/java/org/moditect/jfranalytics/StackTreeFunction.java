@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.calcite.schema.FunctionParameter;
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.TableMacro;
+import org.apache.calcite.schema.TranslatableTable;
+import org.apache.calcite.schema.impl.ReflectiveFunctionBase;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Base class for table functions aggregating the stack traces of an event
+ * table, taking the name of the event table, the name of its weight column (or
+ * {@code null}), and the maximum depth of the stack tree. Each instance is bound
+ * to the tables of the schema registering it, i.e. the event table is resolved
+ * within that schema, also if a connection has multiple JFR schemas.
+ * <p>
+ * Calcite only supports invoking table macros via their qualified name, e.g.
+ * {@code jfr.COLLAPSED_STACKS(...)}.
+ */
+abstract class StackTreeFunction implements TableMacro {
+
+    private static final List<FunctionParameter> PARAMETERS = ReflectiveFunctionBase.builder()
+            .add(String.class, "table")
+            .add(String.class, "weightColumn")
+            .add(int.class, "depth")
+            .build();
+
+    private final Function<String, Table> tables;
+
+    /**
+     * @param tables Returns the table with the given name of the schema
+     *        registering this function
+     */
+    StackTreeFunction(Function<String, Table> tables) {
+        this.tables = tables;
+    }
+
+    @Override
+    public List<FunctionParameter> getParameters() {
+        return PARAMETERS;
+    }
+
+    @Override
+    public TranslatableTable apply(List<? extends @Nullable Object> arguments) {
+        Object tableName = arguments.get(0);
+        Object weightColumn = arguments.get(1);
+        Object depth = arguments.get(2);
+
+        if (tableName == null) {
+            throw new IllegalArgumentException("An event table must be given");
+        }
+        if (depth == null) {
+            throw new IllegalArgumentException("A depth must be given");
+        }
+
+        Table table = tables.apply(tableName.toString());
+        if (!(table instanceof JfrScannableTable)) {
+            throw new IllegalArgumentException("Unknown event table: " + tableName);
+        }
+
+        return createTable(tableName.toString(), (JfrScannableTable) table, weightColumn != null ? weightColumn.toString() : null,
+                ((Number) depth).intValue());
+    }
+
+    protected abstract StackTreeTable createTable(String tableName, JfrScannableTable source, String weightColumn, int depth);
+}
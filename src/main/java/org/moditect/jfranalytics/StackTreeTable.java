@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.ArrayList;
+import java.util.function.Function;
+
+import org.apache.calcite.DataContext;
+import org.apache.calcite.interpreter.Bindables;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.TranslatableTable;
+import org.apache.calcite.schema.impl.AbstractTable;
+
+/**
+ * Base class for tables derived from the {@link StackTree} of the events of one
+ * event table, as returned by table functions such as
+ * {@link CollapsedStacksFunction}. The event table is resolved when planning a
+ * query, within the schema which registered the function, and it is scanned
+ * once per scan of this table, retrieving only the stack trace and weight
+ * columns.
+ * <p>
+ * These tables don't exist in any schema, i.e. the generated code of a query
+ * couldn't look them up. Instead, they are scanned by Calcite's interpreter,
+ * which invokes {@link #scan(DataContext)} on the instance directly.
+ */
+abstract class StackTreeTable extends AbstractTable implements ScannableTable, TranslatableTable {
+
+    private final JfrScannableTable source;
+    private final int stackTraceIndex;
+    private final int weightIndex;
+    private final int depth;
+    private final Function<JfrStackFrame, String> labeler;
+
+    /**
+     * @param weightColumn The name of the column with the weight of each event, or
+     *        {@code null} if each event should have a weight of 1
+     * @param labeler Renders the label of the tree node of a frame
+     */
+    StackTreeTable(String tableName, JfrScannableTable source, String weightColumn, int depth, Function<JfrStackFrame, String> labeler) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("At least one frame must be retained");
+        }
+
+        RelDataType rowType = source.getRowType(new JavaTypeFactoryImpl());
+
+        this.source = source;
+        this.stackTraceIndex = getColumn(tableName, rowType, "stackTrace");
+        this.weightIndex = weightColumn != null ? getColumn(tableName, rowType, weightColumn) : -1;
+        this.depth = depth;
+        this.labeler = labeler;
+    }
+
+    @Override
+    public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
+        return Bindables.BindableTableScan.create(context.getCluster(), relOptTable);
+    }
+
+    /**
+     * Builds the stack tree of all the events of the source table, in one pass.
+     */
+    protected StackTree.Node buildTree(DataContext root) {
+        StackTree tree = new StackTree(depth, labeler);
+        int[] projects = weightIndex != -1 ? new int[]{ stackTraceIndex, weightIndex } : new int[]{ stackTraceIndex };
+
+        try (Enumerator<Object[]> rows = source.scan(root, new ArrayList<>(), projects).enumerator()) {
+            while (rows.moveNext()) {
+                Object[] row = rows.current();
+
+                if (row[0] == null) {
+                    continue;
+                }
+
+                long weight = 1;
+                if (weightIndex != -1) {
+                    if (row[1] == null) {
+                        continue;
+                    }
+                    weight = ((Number) row[1]).longValue();
+                }
+
+                tree.add((JfrStackTrace) row[0], weight);
+            }
+        }
+
+        return tree.build();
+    }
+
+    private static int getColumn(String tableName, RelDataType rowType, String name) {
+        RelDataTypeField field = rowType.getField(name, true, false);
+
+        if (field == null) {
+            throw new IllegalArgumentException("Event table " + tableName + " doesn't have a column " + name);
+        }
+
+        return field.getIndex();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2021 - 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.moditect.jfranalytics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the values of one string column, so that all rows with the same value
+ * share one instance. This reduces the memory needed for rows held by Calcite
+ * (e.g. when sorting), and allows for equality checks by identity (e.g. when
+ * grouping). Once the dictionary holds {@link #MAX_SIZE} values, the column is
+ * considered to have a high cardinality, and further values are passed through
+ * as-is.
+ */
+class StringDictionary {
+
+    private static final int MAX_SIZE = 65_536;
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String interned = values.get(value);
+
+        if (interned != null) {
+            return interned;
+        }
+        else if (values.size() >= MAX_SIZE) {
+            return value;
+        }
+
+        interned = values.putIfAbsent(value, value);
+        return interned != null ? interned : value;
+    }
+}
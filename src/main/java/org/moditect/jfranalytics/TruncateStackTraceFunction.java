@@ -15,42 +15,33 @@
  */
 package org.moditect.jfranalytics;
 
-import java.util.List;
-
 import org.apache.calcite.schema.ScalarFunction;
 import org.apache.calcite.schema.impl.ScalarFunctionImpl;
 
-import jdk.jfr.consumer.RecordedFrame;
-import jdk.jfr.consumer.RecordedStackTrace;
-
 /**
- * Truncates a {@link RecordedStackTrace} to the given maximum depth.
+ * Truncates a {@link JfrStackTrace} to the given maximum depth.
+ * <p>
+ * As stack traces are interned per recording, and queries typically evaluate
+ * this function for many events with the same stack trace (often twice per
+ * row, within {@code SELECT} and {@code GROUP BY}), the rendered text is cached
+ * per stack trace instance and depth, by the recording's
+ * {@link StackTraceRenderer}.
  */
 public class TruncateStackTraceFunction {
 
     public static final ScalarFunction INSTANCE = ScalarFunctionImpl.create(TruncateStackTraceFunction.class, "eval");
 
-    public String eval(Object recordedStackTrace, int depth) {
-        if (recordedStackTrace == null) {
+    public String eval(Object stackTrace, int depth) {
+        if (stackTrace == null) {
             return null;
         }
-        if (!(recordedStackTrace instanceof RecordedStackTrace)) {
-            throw new IllegalArgumentException("Unexpected value type: " + recordedStackTrace);
+        if (!(stackTrace instanceof JfrStackTrace)) {
+            throw new IllegalArgumentException("Unexpected value type: " + stackTrace);
         }
         if (depth < 1) {
             throw new IllegalArgumentException("At least one frame must be retained");
         }
 
-        List<RecordedFrame> frames = ((RecordedStackTrace) recordedStackTrace).getFrames();
-        StringBuilder builder = new StringBuilder();
-
-        int i = 0;
-        while (i < depth && i < frames.size()) {
-            builder.append(FrameHelper.asText(frames.get(i)));
-            builder.append(System.lineSeparator());
-            i++;
-        }
-
-        return builder.toString();
+        return ((JfrStackTrace) stackTrace).truncate(depth);
     }
 }
@@ -15,6 +15,8 @@
  */
 package org.moditect.jfranalytics;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,16 +28,43 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.calcite.jdbc.CalciteConnection;
+import org.apache.calcite.linq4j.Linq4j;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.EventType;
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class JfrSchemaFactoryTest {
 
+    @AfterEach
+    public void resetTableCache() {
+        // evicts all tables of the shared cache, and resets its size to be raised by the next connection
+        JfrTableCache.getInstance().setMaxSize(0);
+    }
+
     @Test
     public void canRetrieveTables() throws Exception {
         try (Connection connection = getConnection("basic.jfr")) {
@@ -71,6 +100,10 @@ public class JfrSchemaFactoryTest {
                 assertThat(rs.getString(4)).isEqualTo("time").describedAs("column name");
                 assertThat(rs.getString(6)).isEqualTo("BIGINT").describedAs("type name");
 
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(4)).isEqualTo("stackTraceId").describedAs("column name");
+                assertThat(rs.getString(6)).isEqualTo("BIGINT").describedAs("type name");
+
                 assertThat(rs.next()).isFalse();
             }
         }
@@ -140,11 +173,51 @@ public class JfrSchemaFactoryTest {
                 assertThat(rs.getString(4)).isEqualTo("someString").describedAs("column name");
                 assertThat(rs.getString(6)).isEqualTo("VARCHAR").describedAs("type name");
 
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(4)).isEqualTo("stackTraceId").describedAs("column name");
+                assertThat(rs.getString(6)).isEqualTo("BIGINT").describedAs("type name");
+
                 assertThat(rs.next()).isFalse();
             }
         }
     }
 
+    @Test
+    public void canRetrieveTablesFromAllChunks(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "data-types.jfr");
+
+        try (Connection connection = getConnection(multiChunkFile)) {
+            DatabaseMetaData md = connection.getMetaData();
+            try (ResultSet rs = md.getTables(null, "%", "%", null)) {
+                Set<String> tableNames = new HashSet<>();
+
+                while (rs.next()) {
+                    tableNames.add(rs.getString(3));
+                }
+
+                assertThat(tableNames).contains("jdk.GarbageCollection", "jfrunit.Sync", "test.DataTypes");
+            }
+        }
+    }
+
+    @Test
+    public void canProvideRowCounts(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "basic.jfr", "object-allocations.jfr");
+
+        // no index is built just for planning queries
+        assertThat(new JfrSchema(multiChunkFile).getTable("jdk.ThreadSleep").getStatistic().getRowCount()).isNull();
+
+        JfrSchema schema = new JfrSchema(new JfrRecording(multiChunkFile, 4, true, true));
+
+        assertThat(schema.getTable("jdk.ThreadSleep").getStatistic().getRowCount()).isEqualTo(102.0);
+        assertThat(schema.getTable("jdk.GarbageCollection").getStatistic().getRowCount()).isEqualTo(2.0);
+        assertThat(schema.getTable("jdk.ObjectAllocationSample").getStatistic().getRowCount()).isEqualTo(20959.0);
+
+        try (Connection connection = getConnection(multiChunkFile)) {
+            assertThat(count(connection, "jdk.ThreadSleep", "1 = 1")).isEqualTo(102);
+        }
+    }
+
     @Test
     public void canSelectDifferentDataTypes() throws Exception {
         try (Connection connection = getConnection("data-types.jfr")) {
@@ -224,6 +297,26 @@ public class JfrSchemaFactoryTest {
         }
     }
 
+    @Test
+    public void canSelectColumnsInArbitraryOrder() throws Exception {
+        try (Connection connection = getConnection("basic.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT "cause", "gcId", "cause", "startTime"
+                    FROM jfr."jdk.GarbageCollection"
+                    """);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+
+                assertThat(rs.getString(1)).isEqualTo("System.gc()");
+                assertThat(rs.getInt(2)).isEqualTo(2);
+                assertThat(rs.getString(3)).isEqualTo("System.gc()");
+                assertThat(rs.getTimestamp(4)).isEqualTo(Timestamp.from(ZonedDateTime.parse("2021-12-23T13:40:50.384000000Z").toInstant()));
+                assertThat(rs.next()).isFalse();
+            }
+        }
+    }
+
     @Test
     public void canRunSimpleSelectFromClassLoad() throws Exception {
         try (Connection connection = getConnection("class-loading.jfr")) {
@@ -378,6 +471,1078 @@ public class JfrSchemaFactoryTest {
         }
     }
 
+    @Test
+    public void canJoinStackTraces() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                      SELECT TRUNCATE_STACKTRACE(st."stackTrace", 40), s."weight"
+                      FROM (
+                        SELECT "stackTraceId", SUM("weight") AS "weight"
+                        FROM jfr."jdk.ObjectAllocationSample"
+                        WHERE "startTime" > (SELECT "startTime" FROM jfr."jfrunit.Reset")
+                        GROUP BY "stackTraceId"
+                      ) s
+                      JOIN jfr."jfr.StackTraces" st ON s."stackTraceId" = st."stackTraceId"
+                      ORDER BY s."weight" DESC
+                      LIMIT 10
+                    """);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(1)).startsWith("java.io.BufferedReader.<init>(Reader, int):106");
+                // less than when grouping by the rendered stack trace, as stack traces differing only in their frames'
+                // types (e.g. interpreted vs. compiled) have different ids
+                assertThat(rs.getLong(2)).isEqualTo(95626880);
+            }
+
+            // each stack trace is contained once, and all the events' stack traces are contained
+            assertThat(queryForLong(connection, "SELECT COUNT(*) FROM jfr.\"jfr.StackTraces\""))
+                    .isEqualTo(queryForLong(connection, "SELECT COUNT(DISTINCT \"stackTraceId\") FROM jfr.\"jfr.StackTraces\""))
+                    .isGreaterThanOrEqualTo(queryForLong(connection, "SELECT COUNT(DISTINCT \"stackTraceId\") FROM jfr.\"jdk.ObjectAllocationSample\""));
+            assertThat(queryForLong(connection, """
+                    SELECT COUNT(*)
+                    FROM jfr."jdk.ObjectAllocationSample" e
+                    JOIN jfr."jfr.StackTraces" st ON e."stackTraceId" = st."stackTraceId"
+                    """))
+                    .isEqualTo(queryForLong(connection, "SELECT COUNT(*) FROM jfr.\"jdk.ObjectAllocationSample\" WHERE \"stackTrace\" IS NOT NULL"))
+                    .isPositive();
+
+            // different stack traces never share an id
+            Set<Long> ids = new HashSet<>();
+            Set<List<JfrStackFrame>> stackTraces = new HashSet<>();
+            int rows = 0;
+            try (ResultSet rs = connection.createStatement().executeQuery("SELECT \"stackTraceId\", \"stackTrace\" FROM jfr.\"jfr.StackTraces\"")) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    stackTraces.add(((JfrStackTrace) rs.getObject(2)).getFrames());
+                    rows++;
+                }
+            }
+            assertThat(ids).hasSize(rows);
+            assertThat(stackTraces).hasSize(rows);
+
+            // the frames of all stack traces
+            assertThat(queryForLong(connection, "SELECT COUNT(*) FROM jfr.\"jfr.StackFrames\""))
+                    .isEqualTo(queryForLong(connection, "SELECT SUM(\"frameCount\") FROM jfr.\"jfr.StackTraces\""));
+            assertThat(queryForLong(connection, """
+                    SELECT COUNT(*)
+                    FROM jfr."jfr.StackFrames"
+                    WHERE "depth" = 0 AND "className" = 'java.io.BufferedReader' AND "methodName" = '<init>' AND "lineNumber" = 106
+                    """)).isPositive();
+        }
+    }
+
+    @Test
+    public void canShareStackTraces() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                      SELECT "stackTraceId", "stackTrace"
+                      FROM jfr."jdk.ObjectAllocationSample"
+                      WHERE "stackTrace" IS NOT NULL
+                    """);
+
+            Map<Long, Object> stackTraces = new HashMap<>();
+            Set<Object> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+            int rows = 0;
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    JfrStackTrace stackTrace = (JfrStackTrace) rs.getObject(2);
+                    assertThat(stackTrace.getId()).isEqualTo(rs.getLong(1));
+                    assertThat(stackTraces.computeIfAbsent(stackTrace.getId(), k -> stackTrace)).isSameAs(stackTrace);
+                    frames.addAll(stackTrace.getFrames());
+                    rows++;
+                }
+            }
+
+            // one instance per distinct stack trace and frame
+            assertThat(stackTraces.size()).isLessThan(rows);
+            assertThat(frames).hasSameSizeAs(new HashSet<>(frames));
+        }
+    }
+
+    @Test
+    public void canAccessFieldsAsConfigured() {
+        // the tests are run with and without opening jdk.jfr.consumer, see pom.xml
+        boolean byName = "name".equals(System.getProperty("jfranalytics.test.fieldAccess"));
+
+        assertThat(RecordedEvent.class.getModule().isOpen("jdk.jfr.consumer", FieldAccessor.class.getModule())).isEqualTo(!byName);
+        assertThat(FieldAccessor.isPositional()).isEqualTo(!byName);
+    }
+
+    @Test
+    public void canAccessFieldsOfEventsFromInterleavedChunks() throws Exception {
+        // events of the same type from different chunks have different field lists, e.g. when read concurrently
+        List<RecordedEvent> events = new ArrayList<>();
+        for (String file : List.of("basic.jfr", "object-allocations.jfr")) {
+            try (RecordingFile recordingFile = new RecordingFile(getTestResource(file))) {
+                while (recordingFile.hasMoreEvents()) {
+                    RecordedEvent event = recordingFile.readEvent();
+                    if (event.getEventType().getName().equals("jfrunit.Sync")) {
+                        events.add(event);
+                    }
+                }
+            }
+        }
+
+        assertThat(events).hasSizeGreaterThan(1);
+        assertThat(events.get(0).getFields()).isNotSameAs(events.get(events.size() - 1).getFields());
+
+        List<String> names = events.get(0).getFields().stream()
+                .filter(field -> field.getFields().isEmpty())
+                .map(ValueDescriptor::getName)
+                .collect(Collectors.toList());
+        assertThat(names).isNotEmpty();
+
+        for (String name : names) {
+            FieldAccessor accessor = new FieldAccessor(name);
+
+            for (int i = 0; i < 3; i++) {
+                for (RecordedEvent event : events) {
+                    assertThat(accessor.<Object> get(event)).describedAs(name).isEqualTo(event.getValue(name));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canRetrievePrimitiveValuesWithoutBoxing() throws Exception {
+        AttributeValueConverter.OfLong weight = new FieldAccessor("weight").toLongConverter();
+        int events = 0;
+        int uncachedValues = 0;
+
+        try (RecordingFile recordingFile = new RecordingFile(getTestResource("object-allocations.jfr"))) {
+            while (recordingFile.hasMoreEvents() && events < 100) {
+                RecordedEvent event = recordingFile.readEvent();
+
+                if (event.getEventType().getName().equals("jdk.ObjectAllocationSample")) {
+                    // the value boxed by the parser is passed through, rather than boxing it again
+                    Object value = event.getValue("weight");
+                    assertThat(weight.getValue(event)).isSameAs(value);
+                    assertThat(weight.getLong(event)).isEqualTo(value);
+                    events++;
+
+                    // values outside of the range cached by Long.valueOf() would be a new instance upon each boxing
+                    if (weight.getLong(event) > 127) {
+                        uncachedValues++;
+                    }
+                }
+            }
+        }
+
+        assertThat(events).isEqualTo(100);
+        assertThat(uncachedValues).isPositive();
+    }
+
+    @Test
+    public void canInternCollidingStackTraces() {
+        // "Aa" and "BB" have the same hash code, and so have the two stack traces
+        JfrStackFrame[] frames1 = new JfrStackFrame[]{ new JfrStackFrame("Aa", "run", "()V", 1, "Interpreted", true, false) };
+        JfrStackFrame[] frames2 = new JfrStackFrame[]{ new JfrStackFrame("BB", "run", "()V", 1, "Interpreted", true, false) };
+        assertThat(StackTraces.hash(frames1, 1)).isEqualTo(StackTraces.hash(frames2, 1));
+
+        StackTraceInterner interner = new StackTraceInterner();
+        JfrStackTrace stackTrace1 = interner.intern(frames1, false);
+        JfrStackTrace stackTrace2 = interner.intern(frames2, false);
+
+        assertThat(stackTrace2).isNotSameAs(stackTrace1);
+        assertThat(stackTrace2.getId()).isNotEqualTo(stackTrace1.getId());
+        assertThat(stackTrace1.getFrame(0).getClassName()).isEqualTo("Aa");
+        assertThat(stackTrace2.getFrame(0).getClassName()).isEqualTo("BB");
+
+        assertThat(interner.intern(new JfrStackFrame[]{ new JfrStackFrame("Aa", "run", "()V", 1, "Interpreted", true, false) }, false))
+                .isSameAs(stackTrace1);
+        assertThat(interner.intern(new JfrStackFrame[]{ new JfrStackFrame("BB", "run", "()V", 1, "Interpreted", true, false) }, false))
+                .isSameAs(stackTrace2);
+    }
+
+    @Test
+    public void canRenderFrames() {
+        JfrStackFrame frame = new JfrStackFrame("java.io.BufferedReader", "<init>", "(Ljava/io/Reader;I[[Ljava/lang/String;)V", 106, "Inlined", true, false);
+        JfrStackFrame compiledFrame = new JfrStackFrame("java.io.BufferedReader", "<init>", "(Ljava/io/Reader;I[[Ljava/lang/String;)V", 106, "JIT compiled", true,
+                false);
+        JfrStackFrame nativeFrame = new JfrStackFrame("java.lang.Object", "wait", "(J)V", -1, "Native", false, false);
+
+        assertThat(FrameHelper.asText(frame)).isEqualTo("java.io.BufferedReader.<init>(Reader, int, String[][]):106");
+        assertThat(FrameHelper.asText(nativeFrame)).isNull();
+
+        // rendered once per method and line within a recording
+        StackTraceRenderer renderer = new StackTraceRenderer();
+        assertThat(renderer.getText(frame)).isEqualTo(FrameHelper.asText(frame));
+        assertThat(renderer.getText(compiledFrame)).isSameAs(renderer.getText(frame));
+        assertThat(renderer.getText(nativeFrame)).isNull();
+        assertThat(new StackTraceRenderer().getText(frame)).isNotSameAs(renderer.getText(frame));
+
+        // released when closing the recording
+        StackTraceInterner interner = new StackTraceInterner();
+        JfrStackTrace stackTrace = interner.intern(new JfrStackFrame[]{ frame }, false);
+        String text = stackTrace.getFrameText(0);
+        assertThat(stackTrace.getFrameText(0)).isSameAs(text);
+        interner.getRenderer().clear();
+        assertThat(stackTrace.getFrameText(0)).isEqualTo(text).isNotSameAs(text);
+    }
+
+    @Test
+    public void canUseHasAnyMatchingFrameFunction() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            String any = "HAS_ANY_MATCHING_FRAME(\"stackTrace\", ARRAY['.*java\\.util\\.ArrayList\\.addAll.*', '.*java\\.io\\.BufferedReader.*'])";
+            String or = "(HAS_MATCHING_FRAME(\"stackTrace\", '.*java\\.util\\.ArrayList\\.addAll.*') OR HAS_MATCHING_FRAME(\"stackTrace\", '.*java\\.io\\.BufferedReader.*'))";
+
+            assertThat(count(connection, "\"stackTrace\" IS NOT NULL AND " + any))
+                    .isEqualTo(count(connection, "\"stackTrace\" IS NOT NULL AND " + or))
+                    .isGreaterThan(count(connection, "\"stackTrace\" IS NOT NULL AND HAS_MATCHING_FRAME(\"stackTrace\", '.*java\\.util\\.ArrayList\\.addAll.*')"));
+        }
+
+        // patterns with groups are matched one by one
+        JfrStackTrace stackTrace = new JfrStackTrace(1, false, new JfrStackFrame[]{
+                new JfrStackFrame("com.example.Main", "main", "([Ljava/lang/String;)V", 12, "Interpreted", true, false)
+        });
+        assertThat(new HasAnyMatchingFrameFunction().eval(stackTrace, List.of("(a)\\1", "(com)\\.example.*"))).isTrue();
+        assertThat(new HasAnyMatchingFrameFunction().eval(stackTrace, List.of("(a)\\1", "org\\.example.*"))).isFalse();
+    }
+
+    @Test
+    public void canCacheTruncatedStackTraces() {
+        JfrStackFrame[] frames = {
+                new JfrStackFrame("java.util.ArrayList", "addAll", "(Ljava/util/Collection;)Z", 670, "Inlined", true, false),
+                new JfrStackFrame("com.example.Main", "main", "([Ljava/lang/String;)V", 12, "Interpreted", true, false)
+        };
+        StackTraceInterner interner = new StackTraceInterner();
+        JfrStackTrace stackTrace = interner.intern(frames.clone(), false);
+        TruncateStackTraceFunction function = new TruncateStackTraceFunction();
+
+        assertThat(function.eval(stackTrace, 1)).isEqualTo("java.util.ArrayList.addAll(Collection):670" + System.lineSeparator());
+        assertThat(function.eval(stackTrace, 2)).isEqualTo(function.eval(stackTrace, 40)).hasLineCount(2);
+        assertThat(function.eval(stackTrace, 40)).isSameAs(function.eval(stackTrace, 40));
+        // cached per recording
+        assertThat(function.eval(new StackTraceInterner().intern(frames.clone(), false), 40)).isEqualTo(function.eval(stackTrace, 40))
+                .isNotSameAs(function.eval(stackTrace, 40));
+        // not cached if not interned
+        assertThat(function.eval(new JfrStackTrace(1, false, frames), 40)).isEqualTo(function.eval(stackTrace, 40))
+                .isNotSameAs(function.eval(new JfrStackTrace(1, false, frames), 40));
+
+        // released when closing the recording
+        String text = function.eval(stackTrace, 40);
+        interner.getRenderer().clear();
+        assertThat(function.eval(stackTrace, 40)).isEqualTo(text).isNotSameAs(text);
+
+        // least recently used entries are evicted
+        BoundedCache<String, String> cache = new BoundedCache<>(2);
+        String a = cache.get("a", String::new);
+        String b = cache.get("b", String::new);
+        assertThat(cache.get("a", String::new)).isSameAs(a);
+        cache.get("c", String::new);
+        assertThat(cache.get("a", String::new)).isSameAs(a);
+        assertThat(cache.get("b", String::new)).isEqualTo(b).isNotSameAs(b);
+    }
+
+    @Test
+    public void canCollapseStacks() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT "stack", "weight"
+                    FROM TABLE(jfr.COLLAPSED_STACKS('jdk.ObjectAllocationSample', 'weight', 64))
+                    ORDER BY "weight" DESC
+                    """);
+
+            long totalWeight = 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(1)).contains(";").doesNotContain("(");
+                do {
+                    totalWeight += rs.getLong(2);
+                } while (rs.next());
+            }
+
+            assertThat(totalWeight).isEqualTo(queryForLong(connection, """
+                    SELECT SUM("weight") FROM jfr."jdk.ObjectAllocationSample" WHERE "stackTrace" IS NOT NULL
+                    """));
+
+            // without weight column, each event counts once; depth limits the number of frames per stack
+            statement = connection.prepareStatement("""
+                    SELECT MAX(CHAR_LENGTH("stack") - CHAR_LENGTH(REPLACE("stack", ';', ''))), SUM("weight")
+                    FROM TABLE(jfr.COLLAPSED_STACKS('jdk.ObjectAllocationSample', NULL, 3))
+                    """);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getInt(1)).isEqualTo(2);
+                assertThat(rs.getLong(2)).isEqualTo(count(connection, "\"stackTrace\" IS NOT NULL"));
+            }
+        }
+    }
+
+    @Test
+    public void canCollapseStacksOfMultipleSchemas() throws Exception {
+        Properties properties = new Properties();
+        properties.put("model", """
+                inline: {
+                  version: '1.0',
+                  schemas: [
+                    {
+                      name: 'ALLOCATIONS',
+                      type: 'custom',
+                      factory: 'org.moditect.jfranalytics.JfrSchemaFactory',
+                      operand: { file: '%s' }
+                    },
+                    {
+                      name: 'BASIC',
+                      type: 'custom',
+                      factory: 'org.moditect.jfranalytics.JfrSchemaFactory',
+                      operand: { file: '%s' }
+                    }
+                  ]
+                }
+                """.formatted(getTestResource("object-allocations.jfr"), getTestResource("basic.jfr")));
+
+        try (Connection connection = DriverManager.getConnection("jdbc:calcite:", properties)) {
+            // each function aggregates the events of the recording of its own schema
+            for (String schema : List.of("allocations", "basic")) {
+                assertThat(queryForLong(connection, """
+                        SELECT SUM("weight") FROM TABLE(%s.COLLAPSED_STACKS('jdk.ObjectAllocationSample', NULL, 64))
+                        """.formatted(schema))).isEqualTo(queryForLong(connection, """
+                        SELECT COUNT(*) FROM %s."jdk.ObjectAllocationSample" WHERE "stackTrace" IS NOT NULL
+                        """.formatted(schema)));
+            }
+
+            assertThat(queryForLong(connection, """
+                    SELECT COUNT(*) FROM allocations."jdk.ObjectAllocationSample" WHERE "stackTrace" IS NOT NULL
+                    """)).isNotEqualTo(queryForLong(connection, """
+                    SELECT COUNT(*) FROM basic."jdk.ObjectAllocationSample" WHERE "stackTrace" IS NOT NULL
+                    """));
+        }
+    }
+
+    @Test
+    public void canRetrieveCallTree() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            long totalWeight = queryForLong(connection, """
+                    SELECT SUM("weight") FROM jfr."jdk.ObjectAllocationSample" WHERE "stackTrace" IS NOT NULL
+                    """);
+
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT "nodeId", "parentId", "frame", "selfWeight", "totalWeight"
+                    FROM TABLE(jfr.CALL_TREE('jdk.ObjectAllocationSample', 'weight', 64))
+                    """);
+
+            Map<Long, Long> totalWeights = new HashMap<>();
+            Map<Long, Long> childWeights = new HashMap<>();
+            long selfWeight = 0;
+            long rootWeight = 0;
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    long nodeId = rs.getLong(1);
+                    long parentId = rs.getLong(2);
+                    boolean isRoot = rs.wasNull();
+
+                    assertThat(rs.getString(3)).contains(".").contains("(").contains(")");
+                    selfWeight += rs.getLong(4);
+                    totalWeights.put(nodeId, rs.getLong(5));
+
+                    if (isRoot) {
+                        rootWeight += rs.getLong(5);
+                    }
+                    else {
+                        assertThat(parentId).isLessThan(nodeId);
+                        childWeights.merge(parentId, rs.getLong(5), Long::sum);
+                    }
+                }
+            }
+
+            assertThat(selfWeight).isEqualTo(totalWeight);
+            assertThat(rootWeight).isEqualTo(totalWeight);
+            assertThat(totalWeights).isNotEmpty();
+            childWeights.forEach((parentId, weight) -> assertThat(weight).isLessThanOrEqualTo(totalWeights.get(parentId)));
+        }
+    }
+
+    @Test
+    public void canTraverseDeepStackTrees() {
+        int depth = 100_000;
+        JfrStackFrame[] frames = new JfrStackFrame[depth];
+        for (int i = 0; i < depth; i++) {
+            frames[i] = new JfrStackFrame("com.example.Deep", "m" + (depth - 1 - i), "()V", 1, "Interpreted", true, false);
+        }
+
+        StackTree tree = new StackTree(depth, FrameHelper::asMethodName);
+        tree.add(new JfrStackTrace(1, false, frames), 2);
+        tree.add(new JfrStackTrace(2, false, new JfrStackFrame[]{ frames[depth - 2], frames[depth - 1] }), 1);
+        tree.add(new JfrStackTrace(3, false, new JfrStackFrame[]{ new JfrStackFrame("com.example.Shallow", "m", "()V", 1, "Interpreted", true, false),
+                frames[depth - 1] }), 1);
+        StackTree.Node root = tree.build();
+
+        Map<String, Long> stacks = new HashMap<>();
+        root.collapse((stack, node) -> stacks.put(stack, node.getSelfWeight()));
+        assertThat(stacks).hasSize(3);
+        assertThat(stacks.get("com.example.Deep.m0;com.example.Deep.m1")).isEqualTo(1);
+        assertThat(stacks.get("com.example.Deep.m0;com.example.Shallow.m")).isEqualTo(1);
+        assertThat(stacks.keySet()).filteredOn(s -> s.endsWith("m" + (depth - 1))).singleElement()
+                .satisfies(s -> assertThat(s.split(";")).hasSize(depth));
+
+        List<Object[]> rows = CallTreeFunction.CallTreeTable.getRows(root);
+        assertThat(rows).hasSize(depth + 1);
+        assertThat(rows.get(0)).containsExactly(1L, null, "com.example.Deep.m0", 0L, 4L);
+        // heaviest child first, then the lighter sibling after all descendants of the former
+        assertThat(rows.get(1)).containsExactly(2L, 1L, "com.example.Deep.m1", 1L, 3L);
+        assertThat(rows.get(depth - 1)).containsExactly((long) depth, (long) depth - 1, "com.example.Deep.m" + (depth - 1), 2L, 2L);
+        assertThat(rows.get(depth)).containsExactly((long) depth + 1, 1L, "com.example.Shallow.m", 1L, 1L);
+    }
+
+    @Test
+    public void canUnnestFrames() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT f."className", f."methodName", COUNT(*)
+                    FROM jfr."jdk.ObjectAllocationSample" e, LATERAL TABLE(FRAMES(e."stackTrace")) f
+                    WHERE f."depth" = 0 AND f."javaFrame"
+                    GROUP BY f."className", f."methodName"
+                    ORDER BY COUNT(*) DESC, f."className", f."methodName"
+                    """);
+
+            long events = 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(1)).isNotNull();
+                assertThat(rs.getString(2)).isNotNull();
+                do {
+                    events += rs.getLong(3);
+                } while (rs.next());
+            }
+
+            assertThat(events).isEqualTo(count(connection, "\"stackTrace\" IS NOT NULL"));
+
+            assertThat(queryForLong(connection, """
+                    SELECT COUNT(*)
+                    FROM jfr."jdk.ObjectAllocationSample" e, LATERAL TABLE(FRAMES(e."stackTrace")) f
+                    """)).isEqualTo(queryForLong(connection, """
+                    SELECT SUM(st."frameCount")
+                    FROM jfr."jdk.ObjectAllocationSample" e
+                    JOIN jfr."jfr.StackTraces" st ON e."stackTraceId" = st."stackTraceId"
+                    """));
+        }
+    }
+
+    @Test
+    public void canGroupByStackTraceHash() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            // a depth covering all frames groups by the complete stack traces, the same way as rendering them does
+            for (int depth : new int[]{ 5, 10000 }) {
+                PreparedStatement statement = connection.prepareStatement("""
+                        SELECT REPRESENTATIVE_STACKTRACE("stackTrace", %1$d), SUM("weight")
+                        FROM jfr."jdk.ObjectAllocationSample"
+                        WHERE "stackTrace" IS NOT NULL
+                        GROUP BY STACKTRACE_HASH("stackTrace", %1$d)
+                        ORDER BY SUM("weight") DESC
+                        """.formatted(depth));
+
+                Map<String, Long> weightsByHash = new HashMap<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        assertThat(rs.getString(1).lines()).hasSizeLessThanOrEqualTo(depth);
+                        assertThat(weightsByHash.put(rs.getString(1), rs.getLong(2))).describedAs("Group split up: %s", rs.getString(1)).isNull();
+                    }
+                }
+
+                statement = connection.prepareStatement("""
+                        SELECT TRUNCATE_STACKTRACE("stackTrace", %1$d), SUM("weight")
+                        FROM jfr."jdk.ObjectAllocationSample"
+                        WHERE "stackTrace" IS NOT NULL
+                        GROUP BY TRUNCATE_STACKTRACE("stackTrace", %1$d)
+                        """.formatted(depth));
+
+                Map<String, Long> weightsByText = new HashMap<>();
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        weightsByText.put(rs.getString(1), rs.getLong(2));
+                    }
+                }
+
+                assertThat(weightsByHash).isEqualTo(weightsByText);
+            }
+        }
+
+        // traces differing only in the type of their frames share their hash at any depth
+        StackTraceInterner interner = new StackTraceInterner();
+        JfrStackTrace interpreted = interner.intern(new JfrStackFrame[]{
+                new JfrStackFrame("com.example.Main", "run", "()V", 42, "Interpreted", true, false),
+                new JfrStackFrame("com.example.Main", "main", "([Ljava/lang/String;)V", 12, "Interpreted", true, false)
+        }, false);
+        JfrStackTrace compiled = interner.intern(new JfrStackFrame[]{
+                new JfrStackFrame("com.example.Main", "run", "()V", 42, "JIT compiled", true, false),
+                new JfrStackFrame("com.example.Main", "main", "([Ljava/lang/String;)V", 12, "Interpreted", true, false)
+        }, false);
+
+        assertThat(compiled.getId()).isNotEqualTo(interpreted.getId());
+        for (int depth : new int[]{ 1, 2, 40 }) {
+            assertThat(compiled.getHash(depth)).isEqualTo(interpreted.getHash(depth));
+        }
+    }
+
+    @Test
+    public void canMatchFrames() {
+        JfrStackTrace stackTrace = new JfrStackTrace(1, false, new JfrStackFrame[]{
+                new JfrStackFrame("java.lang.Object", "wait", "(J)V", -1, "Native", false, false),
+                new JfrStackFrame("java.util.ArrayList", "addAll", "(Ljava/util/Collection;)Z", 670, "Inlined", true, false),
+                new JfrStackFrame("com.example.Main", "main", "([Ljava/lang/String;)V", 12, "Interpreted", true, false)
+        });
+
+        HasMatchingFrameFunction function = new HasMatchingFrameFunction();
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(function.eval(stackTrace, ".*java\\.util\\.ArrayList\\.addAll.*")).isTrue();
+            assertThat(function.eval(stackTrace, "com\\.example\\.Main\\.main\\(String\\[\\]\\):12")).isTrue();
+            assertThat(function.eval(stackTrace, "java\\.util\\.ArrayList")).isFalse();
+            assertThat(function.eval(stackTrace, ".*Object\\.wait.*")).isFalse();
+        }
+
+        // one function instance may be evaluated concurrently, with changing patterns
+        List<Boolean> results = IntStream.range(0, 10_000)
+                .parallel()
+                .mapToObj(i -> function.eval(stackTrace, i % 2 == 0 ? ".*java\\.util\\.ArrayList\\.addAll.*" : "java\\.util\\.ArrayList"))
+                .collect(Collectors.toList());
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i)).isEqualTo(i % 2 == 0);
+        }
+
+        // compiled patterns are shared, memoized results are not
+        assertThat(FramePattern.of("java\\.util\\.ArrayList")).isSameAs(FramePattern.of("java\\.util\\.ArrayList"));
+        assertThat(FramePattern.of("java\\.util\\.ArrayList").matcher()).isNotSameAs(FramePattern.of("java\\.util\\.ArrayList").matcher());
+    }
+
+    @Test
+    public void canPushDownFilters() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            Timestamp reset;
+            try (ResultSet rs = connection.prepareStatement("SELECT \"startTime\" FROM jfr.\"jfrunit.Reset\"").executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                reset = rs.getTimestamp(1);
+            }
+
+            // the expressions on the right-hand side can't be pushed down, hence are evaluated by Calcite
+            assertThat(count(connection, "\"weight\" > 1024")).isEqualTo(count(connection, "\"weight\" + 0 > 1024")).isPositive();
+            assertThat(count(connection, "1024 >= \"weight\"")).isEqualTo(count(connection, "1024 >= \"weight\" + 0")).isPositive();
+            assertThat(count(connection, "\"weight\" <> 1024")).isEqualTo(count(connection, "\"weight\" + 0 <> 1024")).isPositive();
+            assertThat(count(connection, "\"stackTrace\" IS NOT NULL AND \"weight\" > 1024 AND \"weight\" < 1000000"))
+                    .isEqualTo(count(connection, "\"stackTrace\" IS NOT NULL AND \"weight\" + 0 > 1024 AND \"weight\" + 0 < 1000000"))
+                    .isPositive();
+
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT COUNT(*)
+                    FROM jfr."jdk.ObjectAllocationSample"
+                    WHERE "startTime" > ?
+                    """);
+            statement.setTimestamp(1, reset);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getLong(1)).isEqualTo(count(connection, "\"startTime\" > (SELECT \"startTime\" FROM jfr.\"jfrunit.Reset\")")).isPositive();
+            }
+        }
+
+        try (Connection connection = getConnection("data-types.jfr")) {
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT "someString"
+                    FROM jfr."test.DataTypes"
+                    WHERE "someBoolean" AND "someString" = 'SQL rockz' AND "someInt" = 2147483647 AND "someDouble" > 0
+                    """);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getString(1)).isEqualTo("SQL rockz");
+                assertThat(rs.next()).isFalse();
+            }
+        }
+    }
+
+    private long count(Connection connection, String condition) throws SQLException {
+        return count(connection, "jdk.ObjectAllocationSample", condition);
+    }
+
+    private long count(Connection connection, String table, String condition) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("""
+                SELECT COUNT(*)
+                FROM jfr."%s"
+                WHERE %s
+                """.formatted(table, condition));
+
+        try (ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private long queryForLong(Connection connection, String query) throws SQLException {
+        try (ResultSet rs = connection.prepareStatement(query).executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void canSkipChunksBeforeStartTime(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+
+        try (Connection connection = getConnection(multiChunkFile)) {
+            assertThat(count(connection, "jdk.ThreadSleep", "true")).isEqualTo(51);
+            assertThat(count(connection, "jdk.ThreadSleep", "\"startTime\" > TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(0);
+            assertThat(count(connection, "jdk.ObjectAllocationSample", "\"startTime\" > TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(20959);
+            assertThat(count(connection, "jdk.ThreadStart", "\"startTime\" >= TIMESTAMP '2022-06-01 00:00:00'")).isEqualTo(4);
+            assertThat(count(connection, "jdk.ThreadStart", "\"startTime\" >= TIMESTAMP '2024-06-01 00:00:00'")).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void canUsePersistentIndex(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+        Path indexFile = tempDir.resolve("multi-chunk.jfr.idx");
+
+        try (Connection connection = getConnection(multiChunkFile, 4, true, true)) {
+            assertThat(indexFile).exists();
+            assertThat(count(connection, "jdk.ThreadSleep", "true")).isEqualTo(51);
+        }
+
+        JfrRecordingIndex index = JfrRecordingIndex.read(indexFile, multiChunkFile);
+        assertThat(index).isNotNull();
+        assertThat(index.getChunks()).hasSize(3);
+        assertThat(index.getEntries("jdk.ObjectAllocationSample")).hasSize(1);
+        assertThat(index.getEventCount("jdk.ObjectAllocationSample")).isEqualTo(20959);
+
+        try (Connection connection = getConnection(multiChunkFile, 4, true, true)) {
+            assertThat(count(connection, "jdk.ThreadSleep", "\"startTime\" < TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(51);
+            assertThat(count(connection, "jdk.ObjectAllocationSample", "\"startTime\" < TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(0);
+            assertThat(count(connection, "jdk.ObjectAllocationSample", "\"startTime\" <= TIMESTAMP '2022-01-01 00:00:00'")).isEqualTo(20959);
+
+            Timestamp maxStartTime;
+            try (ResultSet rs = connection.prepareStatement("SELECT MAX(\"startTime\") FROM jfr.\"jdk.ObjectAllocationSample\"").executeQuery()) {
+                rs.next();
+                maxStartTime = rs.getTimestamp(1);
+            }
+
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT COUNT(*)
+                    FROM jfr."jdk.ObjectAllocationSample"
+                    WHERE "startTime" >= ? AND "startTime" <= ?
+                    """);
+            statement.setTimestamp(1, maxStartTime);
+            statement.setTimestamp(2, maxStartTime);
+
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                assertThat(rs.getLong(1)).isGreaterThan(0);
+            }
+        }
+    }
+
+    @Test
+    public void canQueryWithoutBuildingIndex(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+
+        try (JfrRecording recording = new JfrRecording(multiChunkFile, 4, true);
+                Connection connection = getConnection(recording, null)) {
+            assertThat(count(connection, "jdk.ThreadSleep", "true")).isEqualTo(51);
+            assertThat(queryForLong(connection, "SELECT \"weight\" FROM jfr.\"jdk.ObjectAllocationSample\" LIMIT 1")).isPositive();
+            assertThat(recording.getIndexIfPresent()).isNull();
+
+            // scans which can skip chunks by their start time build the index
+            assertThat(count(connection, "jdk.ThreadSleep", "\"startTime\" > TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(0);
+            assertThat(recording.getIndexIfPresent()).isNotNull();
+        }
+    }
+
+    @Test
+    public void canPruneChunksWithoutLosingEvents(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+
+        try (Connection connection = getConnection(multiChunkFile, 4, true, true)) {
+            assertPrunedCountsMatchFullScan(connection);
+        }
+
+        // a chunk whose events can't be walked is marked as unindexed...
+        List<JfrChunk> chunks = JfrChunk.readChunks(multiChunkFile);
+        List<JfrChunk> misreadChunks = new ArrayList<>(chunks);
+        JfrChunk last = chunks.get(2);
+        misreadChunks.set(2, new JfrChunk(2, last.getOffset(), last.getSize() - 1, last.getMetadataOffset(), last.getStartNanos(),
+                last.getDurationNanos(), last.getStartTicks(), last.getTicksPerSecond()));
+
+        JfrRecordingIndex misreadIndex = JfrRecordingIndex.build(multiChunkFile, misreadChunks);
+        assertThat(misreadIndex.getUnindexedChunks()).containsExactly(2);
+        assertThat(misreadIndex.getEntries("jdk.ThreadStart")).isEmpty();
+
+        // ...and is then always scanned completely
+        new JfrRecordingIndex(chunks, misreadIndex.getEntries(), misreadIndex.getUnindexedChunks())
+                .write(JfrRecording.getIndexFile(multiChunkFile), multiChunkFile);
+
+        try (Connection connection = getConnection(multiChunkFile, 4, true, true)) {
+            assertPrunedCountsMatchFullScan(connection);
+        }
+    }
+
+    private void assertPrunedCountsMatchFullScan(Connection connection) throws SQLException {
+        for (String table : List.of("jdk.ThreadSleep", "jdk.ObjectAllocationSample", "jdk.ThreadStart")) {
+            List<Timestamp> startTimes = new ArrayList<>();
+            try (ResultSet rs = connection.prepareStatement("SELECT \"startTime\" FROM jfr.\"%s\"".formatted(table)).executeQuery()) {
+                while (rs.next()) {
+                    startTimes.add(rs.getTimestamp(1));
+                }
+            }
+            assertThat(startTimes).isNotEmpty();
+            Collections.sort(startTimes);
+
+            PreparedStatement statement = connection.prepareStatement("""
+                    SELECT COUNT(*)
+                    FROM jfr."%s"
+                    WHERE "startTime" >= ?
+                    """.formatted(table));
+
+            for (int i = 0; i < 4; i++) {
+                Timestamp lower = startTimes.get(startTimes.size() * i / 4);
+                statement.setTimestamp(1, lower);
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    assertThat(rs.getLong(1)).describedAs("%s from %s", table, lower)
+                            .isEqualTo(startTimes.stream().filter(startTime -> !startTime.before(lower)).count());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canCacheDecodedTables() throws Exception {
+        Path jfrFile = getTestResource("object-allocations.jfr");
+        CountingTableCache cache = new CountingTableCache(64 * 1024 * 1024);
+
+        List<Timestamp> expectedStartTimes;
+        long expectedCount;
+        try (Connection connection = getConnection(jfrFile)) {
+            expectedStartTimes = getStartTimes(connection);
+            expectedCount = count(connection, "\"weight\" > 1024 AND \"objectClass\" IS NOT NULL");
+        }
+
+        for (int i = 0; i < 2; i++) {
+            try (Connection connection = getConnection(jfrFile, cache)) {
+                assertThat(getStartTimes(connection)).containsExactlyElementsOf(expectedStartTimes);
+                assertThat(count(connection, "\"weight\" > 1024 AND \"objectClass\" IS NOT NULL")).isEqualTo(expectedCount);
+                assertThat(cache.contains(jfrFile, "jdk.ObjectAllocationSample")).isTrue();
+            }
+        }
+
+        // the table has been decoded by the first query, all others hit the cache
+        assertThat(cache.getLoads()).isEqualTo(1);
+
+        // tables exceeding the cache size are evicted
+        try (Connection connection = getConnection(getTestResource("basic.jfr"), cache)) {
+            cache.setMaxSize(cache.getSize() + 1);
+            assertThat(count(connection, "jdk.ThreadSleep", "true")).isEqualTo(51);
+            assertThat(cache.contains(getTestResource("basic.jfr"), "jdk.ThreadSleep")).isTrue();
+            assertThat(cache.contains(jfrFile, "jdk.ObjectAllocationSample")).isFalse();
+        }
+    }
+
+    @Test
+    public void canJoinStackTracesOfCachedTables() throws Exception {
+        Path jfrFile = getTestResource("object-allocations.jfr");
+        CountingTableCache cache = new CountingTableCache(64 * 1024 * 1024);
+
+        try (Connection connection = getConnection(jfrFile, cache)) {
+            assertThat(count(connection, "true")).isEqualTo(20959);
+        }
+
+        // the table cached by the first connection refers to the same stack traces as the second one's
+        try (Connection connection = getConnection(jfrFile, cache)) {
+            int rows = 0;
+            try (ResultSet rs = connection.createStatement().executeQuery("""
+                    SELECT e."stackTrace", st."stackTrace"
+                    FROM jfr."jdk.ObjectAllocationSample" e
+                    JOIN jfr."jfr.StackTraces" st ON e."stackTraceId" = st."stackTraceId"
+                    """)) {
+                while (rs.next()) {
+                    assertThat(rs.getObject(2)).isSameAs(rs.getObject(1));
+                    rows++;
+                }
+            }
+
+            assertThat(rows).isEqualTo(count(connection, "\"stackTrace\" IS NOT NULL"));
+        }
+
+        assertThat(cache.getLoads()).isEqualTo(1);
+    }
+
+    @Test
+    public void canShareCacheBetweenConnections() throws Exception {
+        Path jfrFile = getTestResource("object-allocations.jfr");
+
+        try (Connection connection = getConnection(jfrFile, "schema.cacheSize", "64")) {
+            assertThat(count(connection, "true")).isEqualTo(20959);
+            assertThat(JfrTableCache.getInstance().contains(jfrFile, "jdk.ObjectAllocationSample")).isTrue();
+
+            // connections requesting a smaller cache don't shrink the shared cache
+            try (Connection other = getConnection(getTestResource("basic.jfr"), "schema.cacheSize", "1")) {
+                assertThat(count(other, "jdk.ThreadSleep", "true")).isEqualTo(51);
+                assertThat(JfrTableCache.getInstance().contains(getTestResource("basic.jfr"), "jdk.ThreadSleep")).isTrue();
+                assertThat(JfrTableCache.getInstance().contains(jfrFile, "jdk.ObjectAllocationSample")).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void canSkipLoadingTablesTooLargeForCache() throws Exception {
+        Path jfrFile = getTestResource("object-allocations.jfr");
+        JfrTableCache cache = new JfrTableCache(1024);
+
+        assertThat(cache.get(jfrFile, "jdk.ObjectAllocationSample", 2048, () -> {
+            throw new AssertionError("Table shouldn't be loaded");
+        })).isNull();
+
+        // tables which only turn out to be too large when loaded aren't loaded again
+        List<Object[]> rows = new ArrayList<>();
+        for (long i = 0; i < 1024; i++) {
+            rows.add(new Object[]{ i });
+        }
+
+        assertThat(cache.get(jfrFile, "jdk.ThreadSleep", 0, () -> JfrColumnarTable.of(Linq4j.enumerator(rows), 1))).isNotNull();
+        assertThat(cache.contains(jfrFile, "jdk.ThreadSleep")).isFalse();
+        assertThat(cache.get(jfrFile, "jdk.ThreadSleep", 0, () -> {
+            throw new AssertionError("Table shouldn't be loaded");
+        })).isNull();
+
+        // queries against such tables read the recording instead
+        List<Timestamp> expectedStartTimes;
+        try (Connection connection = getConnection(jfrFile)) {
+            expectedStartTimes = getStartTimes(connection);
+        }
+
+        CountingTableCache smallCache = new CountingTableCache(1024);
+        try (Connection connection = getConnection(jfrFile, smallCache)) {
+            assertThat(getStartTimes(connection)).containsExactlyElementsOf(expectedStartTimes);
+            assertThat(count(connection, "\"startTime\" >= TIMESTAMP '2021-12-25 00:00:00'")).isEqualTo(expectedStartTimes.size());
+        }
+        assertThat(smallCache.getLoads()).isZero();
+    }
+
+    @Test
+    public void canFilterDictionaryEncodedColumns() throws Exception {
+        Path jfrFile = getTestResource("basic.jfr");
+        List<String> conditions = List.of("\"name\" = 'G1Full'", "\"name\" <> 'G1Full'", "\"name\" = 'unknown'", "\"name\" IS NULL",
+                "\"name\" IS NOT NULL", "\"name\" > 'G1Full'", "\"cause\" = 'System.gc()' AND \"name\" = 'G1Full'");
+
+        List<Long> expectedCounts = new ArrayList<>();
+        try (Connection connection = getConnection(jfrFile)) {
+            for (String condition : conditions) {
+                expectedCounts.add(count(connection, "jdk.GarbageCollection", condition));
+            }
+        }
+
+        assertThat(expectedCounts.get(0)).isPositive();
+
+        try (Connection connection = getConnection(jfrFile, new JfrTableCache(64 * 1024 * 1024))) {
+            for (int i = 0; i < conditions.size(); i++) {
+                assertThat(count(connection, "jdk.GarbageCollection", conditions.get(i))).describedAs(conditions.get(i)).isEqualTo(expectedCounts.get(i));
+            }
+
+            // all rows share the dictionary's instances
+            Set<Object> names = Collections.newSetFromMap(new IdentityHashMap<>());
+            try (ResultSet rs = connection.prepareStatement("SELECT \"name\" FROM jfr.\"jdk.GarbageCollection\"").executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getObject(1));
+                }
+            }
+            assertThat(names).hasSameSizeAs(new HashSet<>(names));
+        }
+    }
+
+    @Test
+    public void canRetrieveThreadsOfAllChunks(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "object-allocations.jfr", "thread-start-stop.jfr", "object-allocations.jfr");
+
+        List<String> allocatingThreads;
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            allocatingThreads = getThreadNames(connection, "jdk.ObjectAllocationSample");
+        }
+
+        List<String> startedThreads;
+        try (Connection connection = getConnection("thread-start-stop.jfr")) {
+            startedThreads = getThreadNames(connection, "jdk.ThreadStart");
+        }
+
+        try (Connection connection = getConnection(multiChunkFile, 1, true)) {
+            List<String> expectedAllocatingThreads = new ArrayList<>(allocatingThreads);
+            expectedAllocatingThreads.addAll(allocatingThreads);
+
+            assertThat(getThreadNames(connection, "jdk.ObjectAllocationSample")).containsExactlyElementsOf(expectedAllocatingThreads);
+            assertThat(getThreadNames(connection, "jdk.ThreadStart")).containsExactlyElementsOf(startedThreads);
+        }
+    }
+
+    private List<String> getThreadNames(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.prepareStatement("SELECT (\"eventThread\").\"javaName\" FROM jfr.\"%s\"".formatted(table)).executeQuery()) {
+            List<String> threadNames = new ArrayList<>();
+            while (rs.next()) {
+                threadNames.add(rs.getString(1));
+            }
+            return threadNames;
+        }
+    }
+
+    @Test
+    public void canGenerateRowMaterializer() throws Exception {
+        try (RecordingFile recordingFile = new RecordingFile(getTestResource("object-allocations.jfr"))) {
+            AttributeValueConverter[] converters = {
+                    event -> event.getEventType().getName(),
+                    (AttributeValueConverter.OfLong) event -> event.getStartTime().toEpochMilli(),
+                    event -> event.getThread() != null ? event.getThread().getJavaName() : null
+            };
+
+            RowMaterializer materializer = RowMaterializers.of(converters);
+            assertThat(materializer.getClass().getName()).startsWith("GeneratedRowMaterializer");
+
+            while (recordingFile.hasMoreEvents()) {
+                RecordedEvent event = recordingFile.readEvent();
+                assertThat(materializer.toRow(event)).containsExactly(new RowMaterializers.Generic(converters).toRow(event));
+            }
+        }
+    }
+
+    @Test
+    public void canDeriveValuesWithinRow() throws Exception {
+        AtomicInteger retrieved = new AtomicInteger();
+        AttributeValueConverter source = event -> {
+            retrieved.incrementAndGet();
+            return event.getEventType().getName();
+        };
+        AttributeValueConverter derived = new AttributeValueConverter.Derived() {
+
+            @Override
+            public AttributeValueConverter getSource() {
+                return source;
+            }
+
+            @Override
+            public Object derive(Object name) {
+                return ((String) name).length();
+            }
+        };
+
+        try (RecordingFile recordingFile = new RecordingFile(getTestResource("basic.jfr"))) {
+            RecordedEvent event = recordingFile.readEvent();
+            Object[] expected = { event.getEventType().getName().length(), event.getEventType().getName() };
+
+            RowMaterializer generated = RowMaterializers.of(new AttributeValueConverter[]{ derived, source });
+            assertThat(generated.getClass().getName()).startsWith("GeneratedRowMaterializer");
+
+            // the source value is retrieved once per row, also if the derived column comes first
+            for (RowMaterializer materializer : List.of(generated, new RowMaterializers.Generic(new AttributeValueConverter[]{ derived, source }))) {
+                retrieved.set(0);
+                assertThat(materializer.toRow(event)).containsExactly(expected);
+                assertThat(retrieved.get()).isEqualTo(1);
+            }
+
+            // without the source column, the value is retrieved for the derived one
+            assertThat(RowMaterializers.of(new AttributeValueConverter[]{ derived }).toRow(event)).containsExactly(expected[0]);
+        }
+    }
+
+    @Test
+    public void canDeleteChunkFilesOnClose(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+        Path chunkFile;
+
+        try (JfrRecording recording = new JfrRecording(multiChunkFile, 4, true)) {
+            JfrChunk chunk = recording.getChunks().get(1);
+            chunkFile = recording.getChunkFile(chunk);
+
+            assertThat(Files.size(chunkFile)).isEqualTo(chunk.getSize());
+            assertThat(recording.getChunkFile(chunk)).isEqualTo(chunkFile);
+
+            // cancelled extractions don't leave any partial file behind
+            assertThat(recording.getChunkFile(recording.getChunks().get(2), () -> true)).isNull();
+            try (var files = Files.list(chunkFile.getParent())) {
+                assertThat(files).containsExactly(chunkFile);
+            }
+        }
+
+        assertThat(chunkFile).doesNotExist();
+        assertThat(chunkFile.getParent()).doesNotExist();
+    }
+
+    @Test
+    public void canParseChunksInParallel(@TempDir Path tempDir) throws Exception {
+        Path multiChunkFile = concat(tempDir.resolve("multi-chunk.jfr"), "basic.jfr", "object-allocations.jfr", "thread-start-stop.jfr");
+
+        List<Timestamp> expectedStartTimes;
+        try (Connection connection = getConnection(multiChunkFile, 1, true)) {
+            expectedStartTimes = getStartTimes(connection);
+            assertThat(expectedStartTimes).hasSize(20959).isSorted();
+        }
+
+        try (Connection connection = getConnection(multiChunkFile, 4, true)) {
+            assertThat(getStartTimes(connection)).containsExactlyElementsOf(expectedStartTimes);
+            assertThat(count(connection, "jdk.ThreadSleep", "true")).isEqualTo(51);
+            assertThat(count(connection, "jdk.ThreadStart", "true")).isEqualTo(4);
+        }
+
+        try (Connection connection = getConnection(multiChunkFile, 4, false)) {
+            assertThat(getStartTimes(connection)).containsExactlyInAnyOrderElementsOf(expectedStartTimes);
+            assertThat(count(connection, "jdk.ThreadSleep", "\"startTime\" > TIMESTAMP '2021-12-20 00:00:00'")).isEqualTo(51);
+            assertThat(count(connection, "jdk.ThreadStart", "true")).isEqualTo(4);
+        }
+    }
+
+    private List<Timestamp> getStartTimes(Connection connection) throws SQLException {
+        try (ResultSet rs = connection.prepareStatement("SELECT \"startTime\" FROM jfr.\"jdk.ObjectAllocationSample\"").executeQuery()) {
+            List<Timestamp> startTimes = new ArrayList<>();
+            while (rs.next()) {
+                startTimes.add(rs.getTimestamp(1));
+            }
+            return startTimes;
+        }
+    }
+
+    @Test
+    public void canStopReadingEarlyWithLimit() throws Exception {
+        try (Connection connection = getConnection("object-allocations.jfr")) {
+            for (int i = 0; i < 3; i++) {
+                PreparedStatement statement = connection.prepareStatement("""
+                          SELECT "startTime", "weight"
+                          FROM jfr."jdk.ObjectAllocationSample"
+                          LIMIT 5
+                        """);
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    int size = 0;
+                    while (rs.next()) {
+                        size++;
+                    }
+
+                    assertThat(size).isEqualTo(5);
+                }
+            }
+        }
+
+        // the reader finishes once the consumer has been closed, having materialized no more events than fit into the queue
+        try (JfrRecording recording = new JfrRecording(getTestResource("object-allocations.jfr"))) {
+            EventType eventType = recording.getEventTypes().stream()
+                    .filter(type -> type.getName().equals("jdk.ObjectAllocationSample"))
+                    .findFirst()
+                    .orElseThrow();
+            AtomicInteger materialized = new AtomicInteger();
+
+            JfrEnumerator enumerator = new JfrEnumerator(recording, eventType, recording.getChunks(), event -> {
+                materialized.incrementAndGet();
+                return new Object[0];
+            }, new EventFilter[0], null);
+
+            for (int i = 0; i < 5; i++) {
+                assertThat(enumerator.moveNext()).isTrue();
+            }
+            enumerator.close();
+
+            assertThat(recording.getPool().awaitQuiescence(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(materialized.get()).isLessThanOrEqualTo((JfrEnumerator.QUEUE_CAPACITY + 2) * JfrEnumerator.BATCH_SIZE);
+        }
+    }
+
     @Test
     public void canUseHasMatchingFrameFunction() throws Exception {
         try (Connection connection = getConnection("object-allocations.jfr")) {
@@ -458,9 +1623,63 @@ public class JfrSchemaFactoryTest {
         }
     }
 
+    /**
+     * Concatenates the given recordings, resulting in a recording with multiple chunks.
+     */
+    private Path concat(Path target, String... jfrFileNames) throws IOException {
+        try (OutputStream out = Files.newOutputStream(target)) {
+            for (String jfrFileName : jfrFileNames) {
+                Files.copy(getTestResource(jfrFileName), out);
+            }
+        }
+
+        return target;
+    }
+
     private Connection getConnection(String jfrFileName) throws SQLException {
-        Path jfrFile = getTestResource(jfrFileName);
+        return getConnection(getTestResource(jfrFileName));
+    }
 
+    private Connection getConnection(Path jfrFile, int parallelism, boolean ordered) throws SQLException {
+        return getConnection(jfrFile, parallelism, ordered, false);
+    }
+
+    private Connection getConnection(Path jfrFile, int parallelism, boolean ordered, boolean index) throws SQLException {
+        Properties properties = new Properties();
+        properties.put("schemaFactory", JfrSchemaFactory.class.getName());
+        properties.put("schema", "JFR");
+        properties.put("schema.file", jfrFile.toString());
+        properties.put("schema.parallelism", String.valueOf(parallelism));
+        properties.put("schema.ordered", String.valueOf(ordered));
+        properties.put("schema.index", String.valueOf(index));
+
+        return DriverManager.getConnection("jdbc:calcite:", properties);
+    }
+
+    private Connection getConnection(Path jfrFile, String property, String value) throws SQLException {
+        Properties properties = new Properties();
+        properties.put("schemaFactory", JfrSchemaFactory.class.getName());
+        properties.put("schema", "JFR");
+        properties.put("schema.file", jfrFile.toString());
+        properties.put(property, value);
+
+        return DriverManager.getConnection("jdbc:calcite:", properties);
+    }
+
+    private Connection getConnection(Path jfrFile, JfrTableCache cache) throws SQLException {
+        return getConnection(new JfrRecording(jfrFile, 4, true, false, cache), cache);
+    }
+
+    private Connection getConnection(JfrRecording recording, @Nullable JfrTableCache cache) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:calcite:");
+        CalciteConnection calciteConnection = connection.unwrap(CalciteConnection.class);
+        calciteConnection.getRootSchema().add("JFR", new JfrSchema(recording, cache));
+        calciteConnection.setSchema("JFR");
+
+        return connection;
+    }
+
+    private Connection getConnection(Path jfrFile) throws SQLException {
         Properties properties = new Properties();
         properties.put("model", JfrSchemaFactory.getInlineModel(jfrFile));
 
@@ -481,4 +1700,28 @@ public class JfrSchemaFactoryTest {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * A table cache counting how many tables it has loaded.
+     */
+    private static class CountingTableCache extends JfrTableCache {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        CountingTableCache(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public JfrColumnarTable get(Path file, String eventType, long estimatedSize, Supplier<JfrColumnarTable> loader) {
+            return super.get(file, eventType, estimatedSize, () -> {
+                loads.incrementAndGet();
+                return loader.get();
+            });
+        }
+
+        int getLoads() {
+            return loads.get();
+        }
+    }
 }